@@ -0,0 +1,223 @@
+package fqlite.base;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fqlite.descriptor.TableDescriptor;
+
+/**
+ * A RowSink with a bounded queue in front of another (usually slower) sink.
+ *
+ * The worker threads put their rows into a queue of fixed size, a single
+ * consumer thread takes them out and passes them on to the wrapped sink. If
+ * the consumer falls behind, the queue fills up and the workers have to wait
+ * until there is room again. So the number of rows held in memory does not
+ * depend on the size of the database, only on the capacity of the queue.
+ *
+ * The wrapped sink is only called from the consumer thread, in the order the
+ * rows and tables were passed in. It does not have to be thread-safe.
+ */
+public class BoundedRowSink extends Base implements RowSink {
+
+	/* maximum number of rows passed to the wrapped sink in one call */
+	static final int MAX_BATCH_SIZE = 256;
+
+	/* marks the end of the input */
+	private static final Object END = new Object();
+
+	private final RowSink delegate;
+	private final BlockingQueue<Object> queue;
+	private final Thread consumer;
+
+	/* number of items taken out of the queue and passed on */
+	private final AtomicLong done = new AtomicLong();
+	/* number of items put into the queue */
+	private final AtomicLong added = new AtomicLong();
+	/* number of times a worker had to wait for the consumer */
+	private final AtomicLong stalls = new AtomicLong();
+
+	private volatile Throwable failure;
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor. The consumer thread is started immediately.
+	 *
+	 * @param delegate the sink that gets the rows
+	 * @param capacity maximum number of rows waiting for the consumer
+	 */
+	public BoundedRowSink(RowSink delegate, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive: " + capacity);
+		this.delegate = delegate;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.consumer = new Thread(this::consume, "fqlite-sink");
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	/**
+	 * @return the sink that gets the rows
+	 */
+	public RowSink getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public void tableDiscovered(TableDescriptor td) {
+		enqueue(td);
+	}
+
+	/**
+	 * Hand a row over to the consumer. Blocks while the queue is full.
+	 *
+	 * If the calling thread is interrupted while it is waiting, the row is
+	 * dropped and the interrupt flag is set again (the job is being shut down
+	 * in this case).
+	 */
+	@Override
+	public void accept(SqliteInternalRow row) {
+		/* the row is read by the consumer thread -> it must not reference the page buffer */
+		row.detach();
+		enqueue(row);
+	}
+
+	private void enqueue(Object item) {
+		if (closed)
+			throw new IllegalStateException("row sink is closed");
+		if (failure != null) {
+			/* the consumer is gone, the error is reported by flush() and close() */
+			return;
+		}
+		if (queue.offer(item)) {
+			added.incrementAndGet();
+			return;
+		}
+		stalls.incrementAndGet();
+		try {
+			while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+				if (failure != null)
+					return;
+			}
+			added.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void consume() {
+		List<Object> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		List<SqliteInternalRow> rows = new ArrayList<>(MAX_BATCH_SIZE);
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+				for (Object item : batch) {
+					if (item == END) {
+						deliver(rows);
+						return;
+					}
+					if (item instanceof TableDescriptor) {
+						/* keep the order of tables and rows */
+						deliver(rows);
+						delegate.tableDiscovered((TableDescriptor) item);
+						done.incrementAndGet();
+					} else {
+						rows.add((SqliteInternalRow) item);
+					}
+				}
+				deliver(rows);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			/* close() gave up waiting */
+		} catch (Throwable t) {
+			failure = t;
+			err("row sink failed: ", t);
+			/* unblock the workers, their rows are dropped from now on */
+			queue.clear();
+		} finally {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	private void deliver(List<SqliteInternalRow> rows) {
+		if (rows.isEmpty())
+			return;
+		delegate.acceptBatch(rows);
+		done.addAndGet(rows.size());
+		synchronized (this) {
+			notifyAll();
+		}
+		rows.clear();
+	}
+
+	/**
+	 * Wait until all rows passed in so far have reached the wrapped sink.
+	 */
+	@Override
+	public void flush() throws IOException {
+		try {
+			synchronized (this) {
+				while (done.get() < added.get() && failure == null && consumer.isAlive()) {
+					wait(100);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for the row sink", e);
+		}
+		rethrow();
+		delegate.flush();
+	}
+
+	/**
+	 * Pass the remaining rows on, stop the consumer thread and close the
+	 * wrapped sink.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			if (failure == null && consumer.isAlive())
+				queue.put(END);
+			consumer.join();
+		} catch (InterruptedException e) {
+			consumer.interrupt();
+			Thread.currentThread().interrupt();
+		} finally {
+			closed = true;
+			delegate.close();
+		}
+		rethrow();
+	}
+
+	private void rethrow() throws IOException {
+		Throwable t = failure;
+		if (t == null)
+			return;
+		if (t instanceof IOException)
+			throw (IOException) t;
+		throw new IOException("row sink failed", t);
+	}
+
+	/**
+	 * @return how often a worker thread had to wait for the consumer
+	 */
+	public long getStalls() {
+		return stalls.get();
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedRowSink [capacity=" + (queue.size() + queue.remainingCapacity()) + ", passed=" + done.get() + ", stalls=" + getStalls() + "]";
+	}
+}
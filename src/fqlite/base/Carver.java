@@ -28,6 +28,11 @@ public class Carver extends Base {
 
 	int pagenumber;
 
+	Auxiliary aux;
+
+	/* the header of the current match, see carve() */
+	private byte[] header = new byte[64];
+
 	/**
 	 * Constructor.
 	 * 
@@ -38,6 +43,18 @@ public class Carver extends Base {
 	 */
 	public Carver(Job job, ByteBuffer bl, BitSet bs, int pagenumber) {
 		this.job = job;
+		this.aux = new Auxiliary(job);
+		reset(bl, bs, pagenumber);
+	}
+
+	/**
+	 * Prepare the carver for the next page.
+	 * 
+	 * @param bl         a ByteBuffer representing the binary page content
+	 * @param bs         a BitSet to mark places
+	 * @param pagenumber the number of the page within the database.
+	 */
+	public void reset(ByteBuffer bl, BitSet bs, int pagenumber) {
 		block = bl;
 		this.bs = bs;
 		this.pagenumber = pagenumber;
@@ -52,12 +69,12 @@ public class Carver extends Base {
 	 * @param mat   the matcher to use
 	 * @param headertype the type of the header to search for
 	 * @param tbd  the TableDescriptor
-	 * @param firstcol to append the result to
+	 * @param firstcol the serial type of the first column of the last record
 	 * @return if any record was carved
 	 */
 	public int carve(int fromidx, int toidx, SerialTypeMatcher mat, int headertype, TableDescriptor tbd,
-			StringBuffer firstcol) {
-		Auxiliary c = new Auxiliary(job);
+			FirstColumnType firstcol) {
+		Auxiliary c = aux;
 
 		switch (headertype) {
 		case CarverTypes.NORMAL:
@@ -84,65 +101,69 @@ public class Carver extends Base {
 		/* find every match within the given region */
 		while (mat.find()){
 			
-			/* get the hex-presentation of the match */
-			String m = mat.group2Hex();
+			/* the start indices of the match */
+			int from = mat.start();
+
+			/*
+			 * get the indices of the 1st byte after the header -> this is, where the data
+			 * begins
+			 */
+			int end = mat.end();
+
+			/* copy the match, leave room for the bytes that are added in front */
+			if (header.length < end - from + 2) {
+				header = new byte[2 * (end - from + 2)];
+			}
+			int hs = 2;
+			int he = hs + mat.group(header, hs);
+
 			/* skip stupid matches - remember - it is just a heuristic */
-			if ((m.length() < 2) || (m.startsWith("00000000")))
+			if ((he - hs < 1) || (he - hs >= 4 && header[hs] == 0 && header[hs + 1] == 0 && header[hs + 2] == 0 && header[hs + 3] == 0))
 				  continue;
 			//System.out.println("Breich: " + ((pagenumber - 1) * job.ps + fromidx) + " "
 			//		+ ((pagenumber - 1) * job.ps + toidx));
 
-			/* get the start indices of the match */
-			int from = mat.start();
-
 			/* region visited in a match before */
 			if (bs.get(from)) {
 				continue;
 			}
 
-			/*
-			 * get the indices of the 1st byte after the header -> this is, where the data
-			 * begins
-			 */
-			int end = mat.end();
-
 			debug("Match (0..NORMAL, 1..NOLENGTH, 2..FIRSTCOLMISSING) : ", headertype);
-			debug("found ", m);
-			debug("Match: ", m, " on pos:", ((pagenumber - 1) * job.ps + from));
+			if (LOGLEVEL <= DEBUG) {
+				String m = Auxiliary.bytesToHex(header, hs, he);
+				debug("found ", m);
+				debug("Match: ", m, " on pos:", ((pagenumber - 1) * job.ps + from));
+			}
 			
 			boolean missing = false;
 			if (headertype == CarverTypes.NORMAL) {
-			    if (m.length() >= 4) {
-			        firstcol.insert(0,m.substring(2, 4));
+			    if (he - hs >= 2) {
+			        firstcol.set(header[hs + 1]);
 			    } else {
 			        missing = true;
 			    }
-				//System.out.println(" Adding knownfirstcolumntypes " + m.substring(2, 4));
 			}
 
-			if (headertype == CarverTypes.COLUMNSONLY && m.length() >= 2) {
-				firstcol.insert(0,m.substring(0, 2));
-				//System.out.println(" Adding knownfirstcolumntypes " + m.substring(0, 2));
+			if (headertype == CarverTypes.COLUMNSONLY) {
+				firstcol.set(header[hs]);
 
-				m = addHeaderByte(m);
+				hs = addHeaderByte(header, hs, he);
 			}
 
 			if (headertype == CarverTypes.FIRSTCOLUMNMISSING || missing) {
-				if (null != firstcol && firstcol.length()>=2 && !firstcol.subSequence(0,2).equals("00")) {
-					m = firstcol.substring(0,2) + m; 
-		
+				if (null != firstcol && firstcol.isKnown() && firstcol.get() != 0) {
+					header[--hs] = (byte) firstcol.get();
 				} 
 				else {
 				    /* is the first column a integer colum or something else?*/
                     if (tbd.primarykeycolumns != null) {
-                      m = "00" + m;
+                      header[--hs] = 0x00;
                     } else {
-                      m = "02" + m;
+                      header[--hs] = 0x02;
                     }
 				}
 					
-
-				m = addHeaderByte(m);
+				hs = addHeaderByte(header, hs, he);
 			}
 
 			if (true) {
@@ -151,7 +172,7 @@ public class Carver extends Base {
 					if (pagenumber >  job.numberofpages)
 						continue;
 					
-					CarvingResult res = c.readDeletedRecord(job, end, block, m, bs, pagenumber);
+					CarvingResult res = c.readDeletedRecord(job, end, block, header, hs, he - hs, bs, pagenumber, job.getColumnProjection(tbd.tblname));
 
 					if (null == res)
 					{
@@ -183,15 +204,15 @@ public class Carver extends Base {
 		return 0;
 	}
 
-	private String addHeaderByte(String s) {
-		int hl = (s.length() / 2) + 1;
-
-		String hls = Integer.toHexString(hl); // Job.Int2Hex(hl);
-
-		if (hls.length() == 1)
-			hls = "0" + hls;
-
-		return hls + s;
+	/**
+	 * Put the header length byte in front of the header.
+	 * 
+	 * @return the new start of the header
+	 */
+	private static int addHeaderByte(byte[] header, int hs, int he) {
+		int hl = (he - hs) + 1;
+		header[--hs] = (byte) hl;
+		return hs;
 	}
 
 
@@ -0,0 +1,36 @@
+package fqlite.base;
+
+/**
+ * Remembers the serial type of the first column (the first byte after the
+ * header length) of the last record that was read or carved. The carver
+ * uses it to complete a header whose first bytes were overwritten.
+ */
+public class FirstColumnType {
+
+	/* -1, as long as no record was seen */
+	private int type = -1;
+
+	public void set(byte b) {
+		type = b & 0xFF;
+	}
+
+	public boolean isKnown() {
+		return type >= 0;
+	}
+
+	/**
+	 * @return the first byte of the serial type or -1
+	 */
+	public int get() {
+		return type;
+	}
+
+	public void reset() {
+		type = -1;
+	}
+
+	@Override
+	public String toString() {
+		return type < 0 ? "" : String.format("%02X", type);
+	}
+}
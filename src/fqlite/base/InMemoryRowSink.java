@@ -0,0 +1,89 @@
+package fqlite.base;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The default RowSink of a Job: all rows are kept in memory. 
+ * 
+ * The raw rows are collected in a queue (only if <code>job.collectInternalRows</code> 
+ * is set), the decoded rows are grouped by table. Every table has its own list, 
+ * so worker threads only block each other, if they add rows of the same table.
+ */
+public class InMemoryRowSink implements RowSink {
+
+	private final Job job;
+
+	private final Queue<SqliteInternalRow> rows = new ConcurrentLinkedQueue<>();
+
+	private final Map<String, List<SqliteRow>> tableRows = new ConcurrentHashMap<>();
+
+	/* table names in the order of their first row */
+	private final Set<String> tableNames = new LinkedHashSet<>();
+
+	public InMemoryRowSink(Job job) {
+		this.job = job;
+	}
+
+	@Override
+	public void accept(SqliteInternalRow row) {
+		if (job.collectInternalRows) {
+			/* the raw row is kept -> it must not reference the page buffer */
+			row.detach();
+			rows.add(row);
+		}
+
+		/* decode outside of any lock */
+		SqliteRow decoded = row.decodeRow();
+		decoded.setCharset(job.db_encoding);
+
+		List<SqliteRow> table = tableRows.get(row.getTableName());
+		if (null == table) {
+			synchronized (tableNames) {
+				table = tableRows.get(row.getTableName());
+				if (null == table) {
+					table = new ArrayList<>();
+					tableRows.put(row.getTableName(), table);
+					tableNames.add(row.getTableName());
+				}
+			}
+		}
+		synchronized (table) {
+			table.add(decoded);
+		}
+	}
+
+	/**
+	 * @return all raw rows, in the order they were found
+	 */
+	public Queue<SqliteInternalRow> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @param tableName the table
+	 * @return the decoded rows of the table
+	 */
+	public List<SqliteRow> getRowsForTable(String tableName) {
+		List<SqliteRow> table = tableRows.get(tableName);
+		if (null == table)
+			return Collections.emptyList();
+		return table;
+	}
+
+	/**
+	 * @return the names of all tables with at least one row
+	 */
+	public Set<String> getTablesNames() {
+		synchronized (tableNames) {
+			return new LinkedHashSet<>(tableNames);
+		}
+	}
+}
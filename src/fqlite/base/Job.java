@@ -4,20 +4,25 @@ import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -25,14 +30,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import fqlite.descriptor.AbstractDescriptor;
@@ -40,10 +49,15 @@ import fqlite.descriptor.IndexDescriptor;
 import fqlite.descriptor.TableDescriptor;
 import fqlite.parser.SQLiteSchemaParser;
 import fqlite.util.Auxiliary;
+import fqlite.util.BufferUtil;
 import fqlite.util.ByteSeqSearcher;
+import fqlite.util.ExternalSorter;
 import fqlite.util.Logger;
 import fqlite.util.LongPositionByteBuffer;
 import fqlite.util.LongPositionByteBufferWrapper;
+import fqlite.util.MappedFileReader;
+import fqlite.util.PageCache;
+import fqlite.util.PageReadAhead;
 import fqlite.util.RandomAccessFileReader;
 
 
@@ -141,18 +155,42 @@ public class Job extends Base {
 	String path;
 	
 	/* A channel for reading, writing, and manipulating the database file. */
-	public RandomAccessFileReader file;
+	public LongPositionByteBuffer file;
+	
+	/* map the database, WAL and journal files into memory instead of reading them through a buffer */
+	public boolean useMemoryMappedIO = false;
+	
+	/* maximum number of pages kept in the page cache, a value of 0 disables the cache */
+	public int pageCacheSize = 1024;
+	
+	/* overflow, interior and schema pages are read several times -> keep them in memory */
+	private PageCache pageCache;
+	
+	/* read the pages of the full scan in the background (not needed for memory mapped files) */
+	public boolean useReadAhead = true;
+	
+	/* worker threads of the currently running processDB(), null in single-threaded mode */
+	private ForkJoinPool pool;
+	
+	/* read-ahead of the currently running scan, null otherwise */
+	private volatile PageReadAhead readAhead;
 	
 	/* this field represent the database encoding */
 	public Charset db_encoding = StandardCharsets.UTF_8;
 	
-	/* this is a multi-threaded program -> all data are saved to the list first*/
-	private Queue<SqliteInternalRow> ll = new ConcurrentLinkedQueue<>();
-
-	private Map<String, List<SqliteRow>> tableRows = new LinkedHashMap<>();
+	/* this is a multi-threaded program -> all recovered rows are handed over to the sink */
+	private RowSink rowSink = new InMemoryRowSink(this);
 	
 	private Map<String, Map<String, Integer>> colIdxMaps = new HashMap<>();
 	
+	/* columns to decode (table name -> column names), all columns of the other tables are decoded */
+	private final Map<String, Set<String>> projections = new ConcurrentHashMap<>();
+	/* the projections as column masks, created with the schema of the table */
+	private final Map<String, boolean[]> projectionMasks = new ConcurrentHashMap<>();
+	
+	/* signatures of all tables, to assign records that are not part of a b-tree */
+	private volatile TableSignatureIndex signatureIndex;
+	
 	private Auxiliary aux = new Auxiliary(this);
 	
 	/* header fields */
@@ -186,6 +224,25 @@ public class Job extends Base {
 	public Map<String, IndexDescriptor> indices = new LinkedHashMap<String, IndexDescriptor>();
 	public AtomicInteger runningTasks = new AtomicInteger();
 	
+	/* set by cancel() or when the deadline has passed -> all steps stop as soon as possible */
+	private volatile boolean cancelled = false;
+	
+	/* point in time (in ms) after which the job is cancelled */
+	private volatile long deadline = Long.MAX_VALUE;
+
+	/* the thread of processDBAsync(), its run keeps the flags set by processDBAsync() */
+	private volatile Thread asyncWorker;
+	
+	/* optional callback to report the progress of the recovery */
+	public volatile ProgressListener progressListener;
+	
+	/* progress of each phase, indexed by RecoveryPhase.ordinal() */
+	private final AtomicLongArray progressDone = new AtomicLongArray(RecoveryPhase.values().length);
+	private final AtomicLongArray progressTotal = new AtomicLongArray(RecoveryPhase.values().length);
+	
+	/* number of records added by addRow() */
+	private final AtomicLong rowsFound = new AtomicLong();
+	
 	AtomicInteger numberofcells = new AtomicInteger();
 	
 	Set<Integer> allreadyvisit;
@@ -222,7 +279,7 @@ public class Job extends Base {
 	  
 	/******************************************************************************************************/
 	
-	private RandomAccessFileReader readWAL(String walpath) throws IOException {
+	private LongPositionByteBuffer readWAL(String walpath) throws IOException {
 		
 		Path p = Paths.get(walpath);
 		if (! Files.exists(p)) {
@@ -236,12 +293,27 @@ public class Job extends Base {
 		 */
 
 		/* try to open the wal-file in read-only mode */
-		RandomAccessFileReader file = new RandomAccessFileReader(p);
+		LongPositionByteBuffer file = openFile(p);
 		resourcesToClose.addFirst(file);
 		return file;
 		
 	}
 	
+	/**
+	 * Open a file in read-only mode. Depending on <code>useMemoryMappedIO</code>
+	 * the file is either mapped into memory or read through a buffered channel.
+	 * 
+	 * @param p path of the file
+	 * @return the reader for the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public LongPositionByteBuffer openFile(Path p) throws IOException {
+		if (useMemoryMappedIO) {
+			return new MappedFileReader(p);
+		}
+		return new RandomAccessFileReader(p);
+	}
+	
 	protected void tableDescriptorReady(TableDescriptor td) {
 	}
 	
@@ -254,6 +326,115 @@ public class Job extends Base {
 	protected void linesReady() throws IOException {
 	}
 			
+	/**
+	 * Start the recovery in a background thread.
+	 * 
+	 * @return a future for the result of <code>processDB()</code>. Cancelling the future stops the job.
+	 */
+	public RecoveryFuture processDBAsync() {
+		return startAsync(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Start the recovery in a background thread. The job is stopped, if it 
+	 * does not finish within the given time.
+	 * 
+	 * @param timeout the maximum time to wait
+	 * @param unit the time unit of the timeout argument
+	 * @return a future for the result of <code>processDB()</code>. 
+	 *         It completes with a <code>TimeoutException</code> after the deadline.
+	 */
+	public RecoveryFuture processDBAsync(long timeout, TimeUnit unit) {
+		return startAsync(System.currentTimeMillis() + unit.toMillis(timeout));
+	}
+
+	private RecoveryFuture startAsync(long until) {
+		/* a new run -> forget the cancellation and the deadline of the last one */
+		cancelled = false;
+		deadline = until;
+		RecoveryFuture future = new RecoveryFuture(this);
+		Thread worker = new Thread(() -> {
+			try {
+				future.complete(processDB());
+			} catch (CancellationException e) {
+				if (deadlineExceeded()) {
+					future.completeExceptionally(new TimeoutException("deadline of the recovery job exceeded"));
+				} else {
+					future.cancel(false);
+				}
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		}, "fqlite-job");
+		asyncWorker = worker;
+		worker.start();
+		return future;
+	}
+
+	/**
+	 * Stop the running job. The worker threads finish their current page, 
+	 * <code>processDB()</code> then throws a <code>CancellationException</code>.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the job was cancelled or its deadline has passed
+	 */
+	public boolean isCancelled() {
+		if (!cancelled && deadlineExceeded()) {
+			cancelled = true;
+		}
+		return cancelled;
+	}
+
+	private boolean deadlineExceeded() {
+		return deadline != Long.MAX_VALUE && System.currentTimeMillis() > deadline;
+	}
+
+	/**
+	 * Throw a CancellationException, if the job has been cancelled.
+	 */
+	private void checkCancelled() {
+		if (isCancelled()) {
+			throw new CancellationException("recovery job cancelled");
+		}
+	}
+
+	/**
+	 * Start a new phase of the progress report.
+	 * 
+	 * @param phase the phase
+	 * @param total number of pages (or frames) to process in this phase
+	 */
+	void beginProgress(RecoveryPhase phase, long total) {
+		progressTotal.set(phase.ordinal(), total);
+		progressDone.set(phase.ordinal(), 0);
+		reportProgress(phase, 0, total);
+	}
+
+	/**
+	 * Count one processed page (or frame) of the given phase. The listener is 
+	 * informed every 64 pages and after the last page.
+	 * 
+	 * @param phase the phase
+	 */
+	void advanceProgress(RecoveryPhase phase) {
+		long done = progressDone.incrementAndGet(phase.ordinal());
+		long total = progressTotal.get(phase.ordinal());
+		if ((done & 63) == 0 || done == total) {
+			reportProgress(phase, done, total);
+		}
+	}
+
+	private void reportProgress(RecoveryPhase phase, long done, long total) {
+		ProgressListener listener = progressListener;
+		if (listener != null) {
+			listener.progress(phase, done, total, rowsFound.get());
+		}
+	}
+
 	/**
 	 * This is the main processing loop of the program.
 	 * 
@@ -261,10 +442,20 @@ public class Job extends Base {
 	 * @throws InterruptedException the InterruptedException
 	 * @throws ExecutionException the ExecutionException
 	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws CancellationException if the job was cancelled or the deadline has passed
 	 */
 	public int processDB() throws InterruptedException, ExecutionException, IOException {
 
+		/* 
+		 * a new run -> forget the cancellation and the deadline of the last one 
+		 * (processDBAsync() has already done this before a cancel() could arrive)
+		 */
+		if (Thread.currentThread() != asyncWorker) {
+			cancelled = false;
+			deadline = Long.MAX_VALUE;
+		}
 		allreadyvisit = ConcurrentHashMap.newKeySet();
+		rowsFound.set(0);
 		List<TableDescriptor> recoveryTables = new LinkedList<>();
 
 		try {
@@ -277,9 +468,17 @@ public class Job extends Base {
 			 * access
 			 */
 
+			/* one pool of worker threads is shared by all steps of the recovery */
+			if (Global.numberofThreads > 0) {
+				pool = new ForkJoinPool(Global.numberofThreads);
+			}
+
 			/* try to open the db-file in read-only mode */
-			file = new RandomAccessFileReader(p);
+			file = openFile(p);
 			resourcesToClose.add(file);
+			
+			/* the sink is closed at the end of the job, after linesReady() */
+			resourcesToClose.add(rowSink);
 
 			/* read header of the sqlite db - the first 100 bytes */
 			ByteBuffer buffer = file.allocateAndReadBuffer(100);
@@ -491,6 +690,10 @@ public class Job extends Base {
 
 			info("Number of pages:", numberofpages);
 
+			if (pageCacheSize > 0) {
+				pageCache = new PageCache(pageCacheSize, ps);
+			}
+
 			/*******************************************************************/
 
 			/* determine the SQL-version of db on offset 96 */
@@ -556,7 +759,7 @@ public class Job extends Base {
 			
 			boolean again = false;
 			int round = 0;
-			RandomAccessFileReader bb = file;
+			LongPositionByteBuffer bb = file;
 			
 			// try to read DB schema following btree.
 			exploreBTree(1, 
@@ -610,6 +813,9 @@ public class Job extends Base {
 			 * indices descriptors
 			 */
 
+			/* components and root pages of all b-trees to explore */
+			List<AbstractDescriptor> btreeOwners = new ArrayList<>();
+			List<Integer> btreeRoots = new ArrayList<>();
 			
 			for (IndexDescriptor id : indices.values()) {
 				String tbn = id.tablename;
@@ -657,11 +863,9 @@ public class Job extends Base {
 						/* HeadPattern !!! */
 						Auxiliary.addHeadPattern2Idx(id);
 						
-						exploreBTree(id.getRootOffset(), pageNumber -> {
-                                if (null == pages[pageNumber])
-                                    pages[pageNumber] = id;
-                                }
-                        );
+						/* the b-tree is explored later on, together with the table trees */
+						btreeOwners.add(id);
+						btreeRoots.add(id.getRootOffset());
 
 						//break;
 					}
@@ -689,6 +893,7 @@ public class Job extends Base {
 				
 				
 				tableDescriptorReady(td);
+				rowSink.tableDiscovered(td);
 
 				if (td.isVirtual())
 					continue;
@@ -697,13 +902,14 @@ public class Job extends Base {
 				recoveryTables.add(td);
 
 				/* explore a component trees and build up page info */
-				exploreBTree(td.getRootOffset(), pageNumber -> { 
-                        if (null == pages[pageNumber])
-                            pages[pageNumber] = td;
-                    }
-                );
+				btreeOwners.add(td);
+				btreeRoots.add(td.getRootOffset());
 
 			}
+			
+			/* traverse all trees in parallel and assign the leaf pages (indices first) */
+			exploreBTrees(btreeOwners, btreeRoots);
+			checkCancelled();
 
 			/*******************************************************************/
 
@@ -735,6 +941,7 @@ public class Job extends Base {
 			headers.put(tdefault.getName(), tdefault);
 			
 			unassignedTableCreated(tdefault);
+			rowSink.tableDiscovered(tdefault);
 			/*******************************************************************/
 
 			byte freepageno[] = new byte[4];
@@ -755,7 +962,7 @@ public class Job extends Base {
 			int head = freelistoffset.getInt();
 			info("head:: ", head);
 			fphead = head;
-			int start = (head - 1) * ps;
+			long start = (long) (head - 1) * ps;
 
 			/*******************************************************************/
 
@@ -769,27 +976,25 @@ public class Job extends Base {
 			 **/
 
 			if (head > 0) {
-				info("first:: ", start, " 0hx ", Integer.toHexString(start));
+				info("first:: ", start, " 0hx ", Long.toHexString(start));
 
 				long startfp = System.currentTimeMillis();
 				info("Start free page recovery .....");
 
 				// seeking file pointer to the first free page entry
 
-				/* create a new threadpool to analyze the freepages */
-				ExecutorService executor = null;
-				if (Global.numberofThreads > 0) {
-					executor = Executors.newFixedThreadPool(Global.numberofThreads);
-				}
-
 				/* a list can extend over several memory pages. */
 				boolean morelistpages = false;
 
 				int freepagesum = 0;
+				
+				/* page numbers of all free pages - they are recovered after the list is read */
+				int[] freepages = new int[64];
+				int freepagecount = 0;
 
 				do {
 					/* reserve space for the first/next page of the free list */
-					ByteBuffer fplist = file.allocateAndReadBuffer(start, ps);
+					ByteBuffer fplist = readBlock(file, start, ps);
 					if (fplist == null) {
 					    break;
 					}
@@ -813,7 +1018,7 @@ public class Job extends Base {
 					if (!Auxiliary.bytesToHex(nextlistoffset).equals(NO_MORE_ENTRIES)) {
 						ByteBuffer of = ByteBuffer.wrap(nextlistoffset);
 						int nfp = of.getInt();
-						start = (nfp - 1) * ps;
+						start = (long) (nfp - 1) * ps;
 						if (!allreadyvisit.contains(nfp)) {
 							allreadyvisit.add(nfp);
 						    morelistpages = true;
@@ -836,8 +1041,6 @@ public class Job extends Base {
 					int entries = e.getInt();
 					info(" Number of Entries in freepage list ", entries);
 
-					runningTasks.set(0);
-					
 					/* iterate through free page list and read free page offsets */
 					for (int zz = 1; zz <= entries; zz++) {
 						byte next[] = new byte[4];
@@ -850,28 +1053,21 @@ public class Job extends Base {
 						if (n == 0) {
 							continue;
 						}
-						// determine offset for free page
-						int offset = (n - 1) * ps;
-
-						RecoveryTask task = new RecoveryTask(aux, this, offset, n, ps, true, recoveryTables);
-						/* add new task to executor queue */
-						runningTasks.incrementAndGet();
-						if (executor != null) {
-							executor.execute(task);
-						} else {
-							task.runSingleThread();
+						if (freepagecount == freepages.length) {
+							freepages = Arrays.copyOf(freepages, freepagecount * 2);
 						}
+						freepages[freepagecount++] = n;
 					}
 					freepagesum += entries;
 
 				} while (morelistpages); // while
 
-				info("Task total: ", runningTasks.intValue());
-
-				if (executor != null) {
-					executor.shutdown();
-					executor.awaitTermination(1000, TimeUnit.DAYS);
-				}
+				runningTasks.set(0);
+				
+				/* free pages are recovered in batches, like the pages of the full scan */
+				PageScheduler freelistscan = new PageScheduler(this, Arrays.copyOf(freepages, freepagecount), true, recoveryTables);
+				info("Task total: ", freepagecount, " ", freelistscan);
+				runOnPool(freelistscan);
 
 				info("Number of cells ", numberofcells.intValue());
 
@@ -882,43 +1078,38 @@ public class Job extends Base {
 
 			} // end of free page list recovery
 
-			info("Lines after free page recovery: ", ll.size());
+			info("Lines after free page recovery: ", rowsFound.get());
+			checkCancelled();
 
 			/*******************************************************************/
 			// start carving
 
-			// full db-scan (including all database pages)
-			scan(numberofpages, ps, recoveryTables);
-
-			/*******************************************************************/
-			
-			if (readRollbackJournal) {
-	            /* the readWAL option is enabled -> check the WAL-file too */
-	            Logger.out.info(" RollbackJournal-File ", this.rollbackjournalpath);
-	            rol = new RollbackJournalReaderBase(rollbackjournalpath, this) {
-                    @Override
-                    public void output() {                        
-                    }
-	            };
-	            rol.ps = this.ps;
-	            /* start parsing Rollbackjournal-file */
-	            rol.parse();
-	        }
-	        if (readWAL) {
-	            /* the readWAL option is enabled -> check the WAL-file too */
-	            Logger.out.info(" WAL-File ", walpath);
-	            wal = new WALReaderBase(walpath, this) {
-                    @Override
-                    public void output() {                        
-                    }
-                };
-	            /* start parsing WAL-file */
-	            wal.parse();
-	        }
+			/*
+			 * STEP 2: the full db-scan (including all database pages) and the analysis
+			 * of the journal files run in parallel on the shared pool.
+			 * 
+			 * Both steps depend on the page-to-component mapping, which is completed
+			 * by the free page recovery above. The list of pages to scan is fixed now, 
+			 * before the journal readers (which may assign further pages) start.
+			 */
+			int[] leafpages = collectLeafPages();
+			CompletableFuture<Void> scanDone = startStep(() -> scan(leafpages, recoveryTables));
+			CompletableFuture<Void> journalsDone = startStep(this::readJournals);
+			awaitSteps(scanDone, journalsDone);
+			checkCancelled();
 			
+			rowSink.flush();
 			linesReady();
 
 		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+				pool = null;
+			}
+			if (pageCache != null) {
+				info(pageCache);
+				pageCache.clear();
+			}
 			closeResources();
 		}
 
@@ -943,6 +1134,179 @@ public class Job extends Base {
 	    }
 	}
 
+	/**
+	 * Only decode the given columns of a table. The other columns of the 
+	 * table are skipped while the records are read and are NULL in the 
+	 * recovered rows, so the rows keep the layout of the table. 
+	 * 
+	 * @param tableName the table
+	 * @param columns the columns to decode, null to decode all columns again
+	 */
+	public void setColumnProjection(String tableName, Collection<String> columns) {
+		if (null == columns) {
+			projections.remove(tableName);
+		} else {
+			projections.put(tableName, new HashSet<>(columns));
+		}
+		projectionMasks.remove(tableName);
+	}
+
+	public void setColumnProjection(String tableName, String... columns) {
+		setColumnProjection(tableName, null == columns ? null : Arrays.asList(columns));
+	}
+
+	/**
+	 * Get the columns of a table that have to be decoded.
+	 * 
+	 * @param tableName the table of the record
+	 * @return a mask with one flag per column or null, if all columns are decoded
+	 */
+	public boolean[] getColumnProjection(String tableName) {
+		if (projections.isEmpty() || null == tableName) {
+			return null;
+		}
+		boolean[] mask = projectionMasks.get(tableName);
+		if (mask != null) {
+			return mask;
+		}
+		Set<String> columns = projections.get(tableName);
+		if (null == columns) {
+			return null;
+		}
+		TableDescriptor td;
+		synchronized (lock) {
+			td = headers.get(tableName);
+		}
+		if (null == td || null == td.columnnames) {
+			/* without a schema, we do not know the positions of the columns */
+			return null;
+		}
+		mask = new boolean[td.columnnames.size()];
+		for (int i = 0; i < mask.length; i++) {
+			mask[i] = columns.contains(td.columnnames.get(i));
+		}
+		projectionMasks.put(tableName, mask);
+		return mask;
+	}
+
+	/**
+	 * Get the signature index of the tables found so far. The tables are 
+	 * only added to the schema, so the index is created again whenever 
+	 * the number of tables has changed.
+	 * 
+	 * @return the index
+	 */
+	public TableSignatureIndex getSignatureIndex() {
+		TableSignatureIndex index = signatureIndex;
+		if (null != index && index.size() == headers.size()) {
+			return index;
+		}
+		synchronized (lock) {
+			index = signatureIndex;
+			if (null == index || index.size() != headers.size()) {
+				index = new TableSignatureIndex(headers.values());
+				signatureIndex = index;
+				debug(index);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Run a PageScheduler on the shared pool. Without worker threads, all pages 
+	 * are processed in the calling thread.
+	 * 
+	 * @param scheduler the pages to recover
+	 */
+	private void runOnPool(PageScheduler scheduler) {
+		scheduler.run(pool);
+	}
+
+	/**
+	 * A step of the recovery that can run in parallel to other steps.
+	 */
+	private interface Step {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Start a step of the recovery on the shared pool. In single-threaded mode
+	 * the step is executed immediately.
+	 * 
+	 * @param step the step to execute
+	 * @return a future that is completed when the step has finished
+	 */
+	private CompletableFuture<Void> startStep(Step step) {
+		if (pool == null) {
+			CompletableFuture<Void> done = new CompletableFuture<>();
+			try {
+				step.run();
+				done.complete(null);
+			} catch (Exception e) {
+				done.completeExceptionally(e);
+			}
+			return done;
+		}
+		return CompletableFuture.runAsync(() -> {
+			try {
+				step.run();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, pool);
+	}
+
+	/**
+	 * Wait for the given steps. An exception thrown by one of the steps is 
+	 * passed on to the caller.
+	 */
+	private void awaitSteps(CompletableFuture<?>... steps) throws InterruptedException, ExecutionException, IOException {
+		try {
+			CompletableFuture.allOf(steps).get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof InterruptedException) {
+				throw (InterruptedException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Parse the rollback journal and the WAL archive, if enabled. The readers 
+	 * run one after another, since both of them may complete the 
+	 * page-to-component mapping the other one relies on.
+	 */
+	private void readJournals() throws IOException {
+		if (readRollbackJournal) {
+            /* the readWAL option is enabled -> check the WAL-file too */
+            Logger.out.info(" RollbackJournal-File ", this.rollbackjournalpath);
+            rol = new RollbackJournalReaderBase(rollbackjournalpath, this) {
+                @Override
+                public void output() {                        
+                }
+            };
+            rol.ps = this.ps;
+            /* start parsing Rollbackjournal-file */
+            rol.parse();
+        }
+        if (readWAL) {
+            /* the readWAL option is enabled -> check the WAL-file too */
+            Logger.out.info(" WAL-File ", walpath);
+            wal = new WALReaderBase(walpath, this) {
+                @Override
+                public void output() {                        
+                }
+            };
+            /* start parsing WAL-file */
+            wal.parse();
+        }
+	}
+
 	protected void closeResources() {
 	    for (Closeable c : resourcesToClose) {
             try {
@@ -982,14 +1346,14 @@ public class Job extends Base {
                         ByteBuffer bbb = null;
                         if (round == 1) {
                             if (isSinglePage) {
-                                bbb = bb.allocateAndReadBuffer(0, ps);
+                                bbb = readBlock(bb, 0, ps);
                             } else {
                                 int pagenumber = (int)(index / ps);
                                 bbb = readPageWithNumber(pagenumber, ps);
                             }
                         } else {
                             starthere = (int) ((index - 32) % (ps + 24)) - goback + headerStart - 3;
-                            bbb = bb.allocateAndReadBuffer(32 + 24 + index/ps, ps);
+                            bbb = readBlock(bb, 32 + 24 + index/ps, ps);
                         }
                         if (bbb == null) {
                             break;
@@ -1010,7 +1374,7 @@ public class Job extends Base {
                             if (round == 1)
                             {
                                 if (isSinglePage) {
-                                    bbb = bb.allocateAndReadBuffer(0, ps);
+                                    bbb = readBlock(bb, 0, ps);
                                 } else {
                                     int pagenumber = (int) (index / ps);
                                     bbb = readPageWithNumber(pagenumber, ps);
@@ -1034,7 +1398,7 @@ public class Job extends Base {
                                 }
                                 
                                 /* go to frame start */
-                                bbb = file.allocateAndReadBuffer(pagebegin, ps);
+                                bbb = readBlock(file, pagebegin, ps);
                                 
                             }
                             if (bbb == null) {
@@ -1053,85 +1417,65 @@ public class Job extends Base {
 	}
 
 	/**
-	 * The method creates a Task object for each page to be scanned.
-	 * Each task is then scheduled into a worker thread's ToDo list. 
-	 * 
-	 * After all tasks are assigned, the worker threads are started 
-	 * and begin processing.  
-	 * 
-	 * @param number the number
-	 * @param ps the ps
+	 * Collect all pages with a known component. 
 	 * 
-	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @return the page numbers in ascending order
 	 */
-	private void scan(int number, int ps, List<TableDescriptor> recoveryTables) throws IOException {
-		info("Start with scan...");
-		/* create a new threadpool to analyze the freepages */
-		ExecutorService executor = null;
-		if (Global.numberofThreads > 0) {
-			executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(Global.numberofThreads);
-		}
-
-		long begin = System.currentTimeMillis();
-
-		List<RecoveryTask> tasks = new LinkedList<>();
-        
+	private int[] collectLeafPages() {
+		int[] leafpages = new int[pages.length];
+		int count = 0;
 		
 		for (int cc = 1; cc < pages.length; cc++) {
 			
 			if (null == pages[cc]) 
 			{
 				debug("page ", cc, " is no regular leaf page component. Maybe a indices or overflow or dropped component page.");
-				//System.out.println("page " + cc + " offset " + ((cc-1)*ps) + " is no regular leaf page component. Maybe a indices or overflow or dropped component page.");
 			} 
 			else 
 			{
 				debug("page ", cc, " is a regular leaf page. ");
-
-				// determine offset for free page
-				long offset = (cc - 1) * ps;
-
-				//System.out.println("************************ pagenumber " + cc + " " + offset);
-
-				RecoveryTask task = new RecoveryTask(aux, this, offset, cc, ps, false, recoveryTables);
-				tasks.add(task);
-				runningTasks.incrementAndGet();
+				leafpages[count++] = cc;
 			}
 		}
-		if (executor != null) {
-			debug("Task total: ", runningTasks.intValue(), " worker threads ", Global.numberofThreads);
-		}
+		return Arrays.copyOf(leafpages, count);
+	}
+
+	/**
+	 * The method hands the pages over to a PageScheduler. The scheduler 
+	 * splits the list into batches, which are processed by the worker threads. 
+	 * 
+	 * @param leafpages the pages to scan
+	 * @param recoveryTables tables recovered in job
+	 * 
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void scan(int[] leafpages, List<TableDescriptor> recoveryTables) throws IOException {
+		info("Start with scan...");
+
+		long begin = System.currentTimeMillis();
+		int count = leafpages.length;
 		
-		int c = 1;
-		/* start executing the work threads */
-		for (RecoveryTask t : tasks)
-		{	
-			if (executor != null) {
-				info(" Start worker thread", c++);
-				/* add new task to executor queue */
-				executor.execute(t);
-			} else {
-            	t.runSingleThread();
+		PageScheduler scheduler = new PageScheduler(this, leafpages, false, recoveryTables);
+		debug("Task total: ", count, " worker threads ", Global.numberofThreads, " ", scheduler);
+		
+		/* pages are processed in ascending order -> read the next pages in the background */
+		if (useReadAhead && !useMemoryMappedIO && count > 1) {
+			long[] pagelist = new long[count];
+			for (int i = 0; i < count; i++) {
+				pagelist[i] = leafpages[i] - 1;
 			}
+			readAhead = new PageReadAhead(file, ps, pagelist);
+			readAhead.start();
 		}
-
+		
 		try {
-		    // System.out.println("attempt to shutdown executor");
-			if (executor != null) {
-		    	executor.shutdown();
-				executor.awaitTermination(10, TimeUnit.DAYS);
-			}		
-		}
-		catch (InterruptedException e) {
-		    err("tasks interrupted");
+			runOnPool(scheduler);
 		}
 		finally {
-			if (executor != null) {
-				if (!executor.isTerminated()) {
-					System.err.println("cancel non-finished tasks");
-				}
-				executor.shutdownNow();
-				info("shutdown finished");
+			if (readAhead != null) {
+				readAhead.close();
+				info(readAhead);
+				readAhead = null;
 			}
 		}
 
@@ -1211,6 +1555,24 @@ public class Job extends Base {
 	 */
 	public ByteBuffer readPageWithOffset(long offset, int pagesize) throws IOException {
 
+		/* the page may already be read by the read-ahead of the scan */
+		PageReadAhead ra = readAhead;
+		if (ra != null && pagesize == ps && offset >= 0 && offset % ps == 0) {
+			ByteBuffer prefetched = ra.take(offset / ps);
+			if (prefetched != null) {
+				return prefetched;
+			}
+		}
+		
+		/* 
+		 * the scan reads every page only once -> the page cache is left to 
+		 * the random access of readPageWithNumber()
+		 */
+		return loadPage(offset, pagesize);
+	}
+
+	private ByteBuffer loadPage(long offset, int pagesize) throws IOException {
+
 		if ((offset > file.size()) || (offset < 0))
 		{
 			
@@ -1220,7 +1582,36 @@ public class Job extends Base {
 			
 			return null;
 		}
-		return file.allocateAndReadBuffer(offset, pagesize);
+		
+		/* page buffers are recycled by the caller -> take one from the pool */
+		byte[] page = BufferUtil.acquirePageBuffer(pagesize);
+		ByteBuffer block = ByteBuffer.wrap(page);
+		if (file.readAt(offset, block) < page.length) {
+			BufferUtil.releasePageBuffer(page);
+			return null;
+		}
+		block.clear();
+		return block;
+	}
+
+	/**
+	 * Read a block of bytes with a positional read. In contrast to
+	 * <code>allocateAndReadBuffer()</code> the cursor of the source is not
+	 * touched, so several worker threads can fetch pages at the same time.
+	 * 
+	 * @param source the file to read from
+	 * @param offset absolute offset of the block
+	 * @param size number of bytes to read
+	 * @return the block or <code>null</code> if it is not completely inside the file.
+	 * @throws IOException if an error occurs while reading the block.
+	 */
+	private static ByteBuffer readBlock(LongPositionByteBuffer source, long offset, int size) throws IOException {
+		ByteBuffer block = ByteBuffer.wrap(BufferUtil.allocateByteBuffer(size));
+		if (source.readAt(offset, block) < block.capacity()) {
+			return null;
+		}
+		block.clear();
+		return block;
 	}
 
 	/**
@@ -1238,7 +1629,22 @@ public class Job extends Base {
 		{
 		   return null;
 		}
-		return readPageWithOffset(pagenumber*pagesize, pagesize);
+		if (pageCache == null || pagesize != ps)
+		{
+		   return loadPage(pagenumber*pagesize, pagesize);
+		}
+		
+		/* pages requested by number are usually needed again -> add them to the cache */
+		ByteBuffer page = pageCache.get(pagenumber);
+		if (page == null)
+		{
+		   page = loadPage(pagenumber*pagesize, pagesize);
+		   if (page != null)
+		   {
+		      pageCache.put(pagenumber, page.array());
+		   }
+		}
+		return page;
 	}	
 	
 	/**
@@ -1247,101 +1653,163 @@ public class Job extends Base {
      * for primary and secondary indexes on database relations. 
      * 
      * This method can be called to traverse all nodes of 
-     * a table-tree. 
-     * 
-     * Attention! This is a recursive function. 
+     * a table-tree. The visitor is called for every leaf page,
+     * from the left to the right.
      * 
-     * 
-     * @param pageNumber  the page number
+     * @param pageNumber  the page number of the root
      * @param visitor   visitor to act on leaf pages 
      * @throws IOException ioException
      */
     private void exploreBTree(int pageNumber, BTreePageVisitor visitor) throws IOException {
-        
-        // pagesize * (rootindex - 1) -> go to the start of this page
-        int fileOffset = ps * (pageNumber - 1);
+        for (int leaf : collectBTreeLeaves(pageNumber)) {
+            visitor.visitLeafPage(leaf);
+        }
+    }
 
-        if(fileOffset < 0 || pageNumber < 0)
-            return;
+    /**
+     * Explore several b-trees at once. Each tree is traversed by a worker
+     * thread of the shared pool. Afterwards, the leaf pages are assigned to
+     * their owners in the order of the list, i.e. if two trees share a page,
+     * the first one wins - exactly as with a sequential traversal.
+     * 
+     * @param owners the components, the root page is taken from <code>roots</code>
+     * @param roots the root page of each component
+     * @throws IOException ioException
+     */
+    private void exploreBTrees(List<AbstractDescriptor> owners, List<Integer> roots) throws IOException, InterruptedException, ExecutionException {
         
-        if (fileOffset >= file.size()) {
-            return;
+        beginProgress(RecoveryPhase.SCHEMA, roots.size());
+        
+        List<CompletableFuture<int[]>> leaves = new ArrayList<>(roots.size());
+        for (int root : roots) {
+            CompletableFuture<int[]> result = new CompletableFuture<>();
+            leaves.add(result);
+            startStep(() -> {
+                    result.complete(isCancelled() ? new int[0] : collectBTreeLeaves(root));
+                    advanceProgress(RecoveryPhase.SCHEMA);
+                })
+                .exceptionally(e -> {
+                    result.completeExceptionally(e);
+                    return null;
+                });
         }
+        awaitSteps(leaves.toArray(new CompletableFuture<?>[0]));
         
-        int pageHeaderOffset = 0;
-        if (pageNumber == 1) {
-            pageHeaderOffset = 100;
+        for (int i = 0; i < owners.size(); i++) {
+            AbstractDescriptor owner = owners.get(i);
+            for (int pageNumber : leaves.get(i).join()) {
+                if (null == pages[pageNumber])
+                    pages[pageNumber] = owner;
+            }
         }
+    }
 
-        // first byte of page
-        file.position(fileOffset + pageHeaderOffset);
-        byte pageType = file.get();
-
-        /* check type of the page by reading the first byte */
-        int typ = Auxiliary.getPageType(pageType);
-
-        /* not supported yet */
-        if (typ == 2) {
-            debug(" page number", pageNumber, " is a  INDEXINTERIORPAGE.");
-        } else if (typ == 12) {
-            /* type is either a data interior page (12) */
-            debug("page number ", pageNumber, " is a interior data page ");
-
-            /* now we have to read the cell pointer list with offsets for the other pages */
-
-            /* read the complete internal page into buffer */
-            //System.out.println(" read internal page at offset " + ((root-1)*ps));
-            ByteBuffer buffer = readPageWithNumber(pageNumber - 1, ps);
-            if (buffer == null) {
-                return;
+    /**
+     * Traverse a b-tree and collect its leaf pages. 
+     * 
+     * The traversal uses an explicit stack instead of recursion and remembers 
+     * every page it has seen. A page that is reached a second time is skipped, 
+     * so a corrupted (or crafted) file with a cycle in the tree cannot lead to 
+     * an endless loop or a stack overflow. Every page is read only once.
+     * 
+     * @param root the page number of the root
+     * @return the page numbers of all leaf pages, from the left to the right
+     * @throws IOException ioException
+     */
+    int[] collectBTreeLeaves(int root) throws IOException {
+        
+        int[] leaves = new int[16];
+        int count = 0;
+        
+        BitSet visited = new BitSet();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(root);
+        
+        while (!stack.isEmpty()) {
+            
+            int pageNumber = stack.pop();
+            
+            // pagesize * (rootindex - 1) -> go to the start of this page
+            long fileOffset = (long) ps * (pageNumber - 1);
+            
+            if (fileOffset < 0 || pageNumber < 0)
+                continue;
+            
+            if (fileOffset >= file.size())
+                continue;
+            
+            if (visited.get(pageNumber)) {
+                info("page number ", pageNumber, " is referenced twice in the b-tree of root ", root, " - skipped.");
+                continue;
             }
-
-            byte[] numberofcells = new byte[2];
-            buffer.position(pageHeaderOffset + 3);
-
-            buffer.get(numberofcells);
-            int e = Auxiliary.TwoByteBuffertoInt(numberofcells);              
-
-            /* go on with the cell pointer array */
-            for (int i = 0; i < e; i++) {
-
-                // address of the next cell pointer
-                byte [] celladdr = new byte[2];
-                buffer.position(pageHeaderOffset + 12 + 2 * i);
-                if (buffer.capacity() <= buffer.position()+2)
-                    continue;
-                buffer.get(celladdr);
-                int celloff = Auxiliary.TwoByteBuffertoInt(celladdr);
-
-                // read page number of next node in the btree
-                byte pnext[] = new byte[4];
-                if (celloff >= buffer.capacity() || celloff < 0)
-                    continue;
-                if (celloff > ps)
-                    continue;
-                buffer.position(celloff);
-                buffer.get(pnext);
-                int p = ByteBuffer.wrap(pnext).getInt();
-                // unfolding the next level of the tree
-                debug(" child page ", p);
-                exploreBTree(p, visitor);
+            visited.set(pageNumber);
+            
+            int pageHeaderOffset = 0;
+            if (pageNumber == 1) {
+                pageHeaderOffset = 100;
+            }
+            
+            ByteBuffer buffer = loadPage(fileOffset, ps);
+            if (buffer == null) {
+                continue;
             }
             
-            ByteBuffer rightChildptr = file.allocateAndReadBuffer(fileOffset + pageHeaderOffset + 8, 4);
+            /* check type of the page by reading the first byte */
+            int typ = Auxiliary.getPageType(buffer.get(pageHeaderOffset));
             
-            if (rightChildptr != null) {
-                /* recursive */
-                exploreBTree(rightChildptr.getInt(), visitor);
+            /* not supported yet */
+            if (typ == 2) {
+                debug(" page number", pageNumber, " is a  INDEXINTERIORPAGE.");
+            } else if (typ == 12) {
+                /* type is either a data interior page (12) */
+                debug("page number ", pageNumber, " is a interior data page ");
+                
+                /* now we have to read the cell pointer list with offsets for the other pages */
+                int e = ((buffer.get(pageHeaderOffset + 3) & 0xFF) << 8) | (buffer.get(pageHeaderOffset + 4) & 0xFF);
+                int[] children = new int[e];
+                int n = 0;
+                
+                /* go on with the cell pointer array */
+                for (int i = 0; i < e; i++) {
+                    
+                    // address of the next cell pointer
+                    int celladdr = pageHeaderOffset + 12 + 2 * i;
+                    if (buffer.capacity() <= celladdr + 2)
+                        continue;
+                    int celloff = ((buffer.get(celladdr) & 0xFF) << 8) | (buffer.get(celladdr + 1) & 0xFF);
+                    
+                    // read page number of next node in the btree
+                    if (celloff + 4 > buffer.capacity())
+                        continue;
+                    if (celloff > ps)
+                        continue;
+                    children[n++] = buffer.getInt(celloff);
+                    debug(" child page ", children[n - 1]);
+                }
+                
+                /* the right-most pointer is part of the page header */
+                int rightChild = buffer.getInt(pageHeaderOffset + 8);
+                
+                /* the left-most child has to be visited first -> push in reverse order */
+                stack.push(rightChild);
+                for (int i = n - 1; i >= 0; i--) {
+                    stack.push(children[i]);
+                }
+            } 
+            else if (typ == 8 || typ == 10) {
+                debug("page number ", pageNumber, " is a leaf page set component/index to sqlite schema ");
+                if (pageNumber <= numberofpages) {
+                    if (count == leaves.length) {
+                        leaves = Arrays.copyOf(leaves, count * 2);
+                    }
+                    leaves[count++] = pageNumber;
+                }
             }
-
-        } 
-        else if (typ == 8 || typ == 10) {
-            debug("page number ", pageNumber, " is a leaf page set component/index to sqlite schema ");
-            if (pageNumber >  numberofpages)
-                return;
             
-            visitor.visitLeafPage(pageNumber);
+            BufferUtil.releasePageBuffer(buffer.array());
         }
+        
+        return Arrays.copyOf(leaves, count);
     }
 
 
@@ -1375,8 +1843,58 @@ public class Job extends Base {
      * @param lines lines to write
      */
     public void writeResultsToFile(String filename, String [] lines) {
+        Arrays.parallelSort(lines);
+        writeResultsToFile(filename, writer -> {
+            for (String line: lines)
+            { 
+                writer.write(line);
+            }
+        });
+    }
+
+    /**
+     * Save findings into a comma separated file. The lines are merged from 
+     * the sorted runs of the sorter and streamed to the file.
+     * @param filename file to write results to
+     * @param lines lines to write
+     */
+    public void writeResultsToFile(String filename, ExternalSorter lines) {
+        info(lines);
+        writeResultsToFile(filename, lines::writeTo);
+    }
+
+    /**
+     * Save the rows of a SpillingRowStore into a comma separated file. The 
+     * rows are streamed from the store, grouped by table (in the order of 
+     * the table names) and ordered by offset within a table.
+     * @param filename file to write results to
+     * @param store the rows to write
+     */
+    public void writeResultsToFile(String filename, SpillingRowStore store) {
+        info(store);
+        List<String> tables = new ArrayList<>(store.getTablesNames());
+        Collections.sort(tables);
+        writeResultsToFile(filename, writer -> {
+            for (String table : tables)
+            {
+                try (SpillingRowStore.RowIterator rows = store.iterator(table))
+                {
+                    while (rows.hasNext())
+                    {
+                        writer.write(rows.next().toString());
+                    }
+                }
+            }
+        });
+    }
+
+    private interface LineWriter {
+        void writeLines(Writer writer) throws IOException;
+    }
+
+    private void writeResultsToFile(String filename, LineWriter lines) {
         info("Write results to file...");
-        info("Number of records recovered: ", ll.size());
+        info("Number of records recovered: ", rowsFound.get());
 
         if (null == filename) {
             Path dbfilename = Paths.get(path);
@@ -1391,24 +1909,33 @@ public class Job extends Base {
             filename = "results" + name + date + ".csv";
         }
         
-        Arrays.sort(lines);
-
         /** convert line to UTF-8 **/
+        Path part = null;
         try {
             
-            final File file = new File(filename);
-            
+            final Path file = new File(filename).getAbsoluteFile().toPath();
             
-            try (final BufferedWriter writer = Files.newBufferedWriter(file.toPath(),Charset.forName("UTF-8"), StandardOpenOption.CREATE)) 
+            /* the lines go to a temporary file next to the result first, so a 
+               failure (e.g. while merging the sorted runs) leaves no truncated file */
+            part = file.resolveSibling(file.getFileName() + ".part");
+            try (final BufferedWriter writer = Files.newBufferedWriter(part, Charset.forName("UTF-8"))) 
             {
-              for (String line: lines)
-              { 
-                  writer.write(line);
-              }
+                lines.writeLines(writer);
             }
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+            part = null;
             
         } catch (IOException e) {
+            warning("Cannot write the results to ", filename, ": ", e);
             e.printStackTrace();
+        } finally {
+            if (null != part) {
+                try {
+                    Files.deleteIfExists(part);
+                } catch (IOException e) {
+                    /* nothing left to do */
+                }
+            }
         }
 
     }
@@ -1421,34 +1948,101 @@ public class Job extends Base {
 				return;
 			}
 		}
-		if (collectInternalRows)
-		    ll.add(row);
-		synchronized (lock) {
-            List<SqliteRow> tables = tableRows.get(row.getTableName());
-            if (null == tables) {
-                tables = new ArrayList<>();
-                tableRows.put(row.getTableName(), tables);
-            }
-            SqliteRow decoded = row.decodeRow();
-            decoded.setCharset(db_encoding);
-            tables.add(row.decodeRow());
-		}
+		rowsFound.incrementAndGet();
+		rowSink.accept(row);
     }
 
+    /**
+     * Replace the destination of the recovered rows. The default sink keeps 
+     * all rows in memory. 
+     * 
+     * @param sink the new sink
+     */
+    public void setRowSink(RowSink sink) {
+        this.rowSink = sink;
+    }
+
+    /**
+     * Hand the recovered rows over to the sink through a queue with the given 
+     * capacity. The recovery slows down if the sink does not keep up, so at 
+     * most <code>capacity</code> rows wait in memory.
+     * 
+     * @param sink the new sink
+     * @param capacity maximum number of rows waiting for the sink
+     */
+    public void setRowSink(RowSink sink, int capacity) {
+        this.rowSink = new BoundedRowSink(sink, capacity);
+    }
+
+    /**
+     * Keep the recovered rows in a SpillingRowStore instead of the heap. Rows 
+     * beyond the memory limit are written to temporary files, so the size of 
+     * a recovery is not limited by the heap. After <code>processDB()</code> 
+     * the rows are read with <code>getRowStore().iterator(table)</code>, call 
+     * <code>delete()</code> on the store to remove the temporary files.
+     * 
+     * @param memoryLimit approximate number of bytes of row data kept in memory
+     * @param tempDir directory for the temporary files, <code>null</code> for the default
+     */
+    public void useRowStore(long memoryLimit, Path tempDir) {
+        setRowSink(new SpillingRowStore(memoryLimit, tempDir));
+    }
+
+    public RowSink getRowSink() {
+        return rowSink;
+    }
+
+    /**
+     * @return the store of the recovered rows or null, if the rows are not kept in a SpillingRowStore
+     */
+    public SpillingRowStore getRowStore() {
+        RowSink sink = rowSink;
+        if (sink instanceof BoundedRowSink) {
+            sink = ((BoundedRowSink) sink).getDelegate();
+        }
+        return sink instanceof SpillingRowStore ? (SpillingRowStore) sink : null;
+    }
+
+    /**
+     * @return the sink that keeps the rows in memory or null, if the rows are passed on
+     */
+    private InMemoryRowSink memorySink() {
+        RowSink sink = rowSink;
+        if (sink instanceof BoundedRowSink) {
+            sink = ((BoundedRowSink) sink).getDelegate();
+        }
+        return sink instanceof InMemoryRowSink ? (InMemoryRowSink) sink : null;
+    }
+
+    /**
+     * @return all rows found so far, or an empty queue if the rows are not kept in memory
+     */
     public Queue<SqliteInternalRow> getRows() {
-        return ll;
+        InMemoryRowSink sink = memorySink();
+        if (sink != null) {
+            return sink.getRows();
+        }
+        return new ConcurrentLinkedQueue<>();
     }
 
     public List<SqliteRow> getRowsForTable(String tableName) {
-        synchronized (lock) {
-            return tableRows.getOrDefault(tableName, Collections.emptyList());
+        InMemoryRowSink sink = memorySink();
+        if (sink != null) {
+            return sink.getRowsForTable(tableName);
         }
+        return Collections.emptyList();
     }
 
-    public synchronized Set<String> getTablesNames() {
-        synchronized (lock) {
-            return tableRows.keySet();
+    public Set<String> getTablesNames() {
+        InMemoryRowSink sink = memorySink();
+        if (sink != null) {
+            return sink.getTablesNames();
+        }
+        SpillingRowStore store = getRowStore();
+        if (store != null) {
+            return store.getTablesNames();
         }
+        return Collections.emptySet();
     }
     
     private interface BTreePageVisitor {
@@ -1,20 +1,90 @@
 package fqlite.base;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
 
+import fqlite.export.ExportFormat;
+import fqlite.export.SqliteDatabaseWriter;
+import fqlite.export.TableExporter;
+import fqlite.util.ExternalSorter;
 import fqlite.util.Logger;
 
 
 public class JobCLI extends Job {
-    
+
+    /* memory for the lines of the result file, the rest is sorted on disk */
+    public long sortMemoryLimit = ExternalSorter.DEFAULT_MEMORY_LIMIT;
+
+    /* keep the rows in a SpillingRowStore with this memory limit instead of sorting the lines, 0 = off */
+    public long rowStoreMemoryLimit = 0;
+
+    /* write one file per table instead of the result file */
+    public ExportFormat exportFormat = null;
+    public boolean exportGzip = false;
+
+    private ExternalSorter lines;
+
     public JobCLI() {
         super();
     }
-    
+
+    /**
+     * The rows are not kept in memory. Every row is converted into a line of
+     * the result file by the worker thread that found it, the lines are sorted
+     * by an ExternalSorter. With an export format, the rows are written to
+     * one file per table or into a new database instead. With a row store, the
+     * rows are kept in a SpillingRowStore and the result file is written
+     * table by table.
+     */
+    @Override
+    public int processDB() throws InterruptedException, ExecutionException, IOException {
+        if (exportFormat == ExportFormat.SQLITE) {
+            String name = Paths.get(path).getFileName().toString();
+            lines = null;
+            setRowSink(new SqliteDatabaseWriter(Paths.get("recovered_" + name + "." + exportFormat.getExtension())));
+            return super.processDB();
+        }
+        if (exportFormat != null) {
+            String name = Paths.get(path).getFileName().toString();
+            lines = null;
+            setRowSink(new TableExporter(Paths.get("."), name + "_", exportFormat, exportGzip));
+            return super.processDB();
+        }
+        if (rowStoreMemoryLimit > 0) {
+            lines = null;
+            useRowStore(rowStoreMemoryLimit, null);
+            return super.processDB();
+        }
+        lines = new ExternalSorter(sortMemoryLimit, Global.numberofThreads + 1, null);
+        setRowSink(new RowSink() {
+            @Override
+            public void accept(SqliteInternalRow row) {
+                try {
+                    lines.add(row.toString());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void close() {
+                lines.close();
+            }
+        });
+        return super.processDB();
+    }
+
     protected void linesReady() throws IOException {
-        String[] lines = getRows().stream().map(SqliteInternalRow::toString).toArray(String[]::new);
-        // String[] lines = ll.toArray(new String[0]);
-        writeResultsToFile(null, lines);
+        if (lines != null) {
+            writeResultsToFile(null, lines);
+        }
+        SpillingRowStore store = getRowStore();
+        if (store != null) {
+            writeResultsToFile(null, store);
+            store.delete();
+        }
 
         if (readRollbackJournal) {
             /* the readWAL option is enabled -> check the WAL-file too */
@@ -34,5 +104,5 @@ public class JobCLI extends Job {
             wal.output();
         }
     }
-	
+
 }
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.ExecutionException;
 
+import fqlite.export.ExportFormat;
+
 /**
 * This is the main class, as the name says :-).
 * Use this class to start analyzing a database file from the command line interface
@@ -121,6 +123,80 @@ public class MAIN {
 					    } 
 						
 					}
+					if (option.contains("--pagecache:"))
+					{
+						try
+						{
+							job.pageCacheSize = Integer.parseInt(option.substring(12));
+							System.out.println("page cache size: " + job.pageCacheSize);
+						}
+						catch(NumberFormatException err)
+						{
+							System.out.println(" wrong parameter: " + option.substring(12));
+						}
+					}
+					if (option.equals("--mmap"))
+					{
+						job.useMemoryMappedIO = true;
+						System.out.println("memory mapped I/O enabled");
+					}
+					if (option.contains("--export:"))
+					{
+						try
+						{
+							job.exportFormat = ExportFormat.valueOf(option.substring(9).toUpperCase());
+							System.out.println("export format: " + job.exportFormat);
+						}
+						catch(IllegalArgumentException err)
+						{
+							System.out.println(" wrong parameter: " + option.substring(9));
+						}
+					}
+					if (option.equals("--gzip"))
+					{
+						job.exportGzip = true;
+						System.out.println("compress exported files");
+					}
+					if (option.contains("--sortmem:"))
+					{
+						try
+						{
+							job.sortMemoryLimit = Long.parseLong(option.substring(10)) * 1024 * 1024;
+							System.out.println("memory for sorting the results: " + option.substring(10) + " MB");
+						}
+						catch(NumberFormatException err)
+						{
+							System.out.println(" wrong parameter: " + option.substring(10));
+						}
+					}
+					if (option.contains("--rowstore:"))
+					{
+						try
+						{
+							job.rowStoreMemoryLimit = Long.parseLong(option.substring(11)) * 1024 * 1024;
+							System.out.println("keep the rows in a row store with " + option.substring(11) + " MB of memory");
+						}
+						catch(NumberFormatException err)
+						{
+							System.out.println(" wrong parameter: " + option.substring(11));
+						}
+					}
+					if (option.contains("--columns:"))
+					{
+						/* --columns:<table>=<column>,<column>,... */
+						String projection = option.substring(10);
+						int eq = projection.indexOf('=');
+						if (eq > 0)
+						{
+							String table = projection.substring(0, eq);
+							job.setColumnProjection(table, projection.substring(eq + 1).split(","));
+							System.out.println("columns of table " + table + ": " + projection.substring(eq + 1));
+						}
+						else
+						{
+							System.out.println(" wrong parameter: " + projection);
+						}
+					}
 					
 					
 				}
@@ -162,6 +238,20 @@ public class MAIN {
 		System.out.println("            try to find a companion rollback journal-file and analyse it");
 		System.out.println("  --threads:<number of threads>");
 		System.out.println("            start concurrent processing with x threads (only for large files)");
+		System.out.println("  --pagecache:<number of pages>");
+		System.out.println("            keep up to x pages in memory, 0 disables the page cache (default: 1024)");
+		System.out.println("  --mmap");
+		System.out.println("            map the database files into memory instead of reading them page by page");
+		System.out.println("  --export:<csv|jsonl|sqlite>");
+		System.out.println("            write one file per table (CSV or JSON Lines) or a new SQLite database instead of a single result file");
+		System.out.println("  --gzip");
+		System.out.println("            compress the exported files");
+		System.out.println("  --sortmem:<MB>");
+		System.out.println("            memory for sorting the result lines, larger results are sorted on disk (default: 64)");
+		System.out.println("  --rowstore:<MB>");
+		System.out.println("            keep the rows in a store that spills to disk, the result file is written table by table");
+		System.out.println("  --columns:<table>=<column>,<column>,...");
+		System.out.println("            only decode the given columns of the table, the other columns are empty");
 		System.out.println("  --loglevel:<ERROR|INFO|DEBUG|>");
 		System.out.println("            logmessage details");
 		System.out.println(" ");
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.BitSet;
 
-import fqlite.types.SerialTypes;
 import fqlite.util.Auxiliary;
 import fqlite.util.BufferUtil;
 import fqlite.util.CarvingResult;
@@ -168,14 +167,27 @@ public class PageReader extends Base {
 	 */
 	public CarvingResult readDeletedRecord(Job job, int start, ByteBuffer buffer, String header, BitSet bs,
 			int pagenumber) throws IOException {
+		byte[] bytes = Auxiliary.decode(header);
+		return readDeletedRecord(job, start, buffer, bytes, 0, bytes.length, bs, pagenumber);
+	}
+
+	/**
+	 * Same as above, but the header is passed as bytes.
+	 * 
+	 * @param header array with the record header bytes
+	 * @param off first header byte
+	 * @param hlen number of header bytes
+	 */
+	public CarvingResult readDeletedRecord(Job job, int start, ByteBuffer buffer, byte[] header, int off, int hlen,
+			BitSet bs, int pagenumber) throws IOException {
 
 		SqliteElement[] columns;
 
 		buffer.position(start);
 
-		int recordstart = start - (header.length() / 2) - 2;
+		int recordstart = start - hlen - 2;
 
-		columns = Auxiliary.toColumns(header, job.db_encoding);
+		columns = Auxiliary.convertHeaderToSqliteElements(header, off, hlen, job.db_encoding);
 
 		if (null == columns)
 			return null;
@@ -183,30 +195,20 @@ public class PageReader extends Base {
 		SqliteInternalRow row = new SqliteInternalRow();
 		// String[] row = new String[columns.length]; // set to maximum page size
 		//int co = 0;
-		String fp = null;
-		try {
-			fp = Auxiliary.getTableFingerPrint(columns);
-
-		} catch (NullPointerException err) {
-			// System.err.println(err);
-		}
-		if (null == fp)
-			fp = "unkown";
-		// String idxname = Signatures.getTable(fp);
 
 		boolean error = false;
 
 		row.setOffset((pagenumber - 1) * job.ps + buffer.position());
 
 		/* use the header information to reconstruct */
-		int pll = Auxiliary.computePayloadLengthS(header);
+		int pll = Auxiliary.computePayloadLengthS(header, off, hlen);
 
 		int so = Auxiliary.computePayloadS(pll,job.ps);
 
 		int overflow = -1;
 
 		if (so < pll) {
-			int phl = header.length() / 2;
+			int phl = hlen;
 
 			int last = buffer.position();
 			debug(" deleted spilled payload ::", so);
@@ -258,19 +260,14 @@ public class PageReader extends Base {
 				}
 
 				if (en.length == 0) {
-                    if (en.type == SerialTypes.INT0) {
-                        row.append(new SqliteElementData(en, 0));
-                    } else {
-                        row.append(new SqliteElementData(null, job.db_encoding));
-                    }
+                    row.append(SqliteElementData.empty(en, job.db_encoding));
                 } else {
                     int len = en.length;
                     
                     try {
                         if (len>0) {
-                            byte[] value = BufferUtil.allocateByteBuffer(len);
-                            bf.get(value);
-                            row.append(new SqliteElementData(en, value));
+                            /* bf is either the page itself or a copy with the overflow */
+                            row.append(SqliteElementData.slice(en, bf, Math.min(len, Global.MAX_BUFFER_SIZE), bf == buffer));
                         } else {
                             row.append(new SqliteElementData(null, job.db_encoding)); 
                         }
@@ -299,14 +296,13 @@ public class PageReader extends Base {
 					continue;
 				}
 
-				byte[] value = BufferUtil.allocateByteBuffer(en.length);
-				if ((buffer.position() + en.length) > buffer.limit()) {
+				int len = Math.min(en.length, Global.MAX_BUFFER_SIZE);
+				if ((buffer.position() + len) > buffer.limit()) {
 					error = true;
 					return null;
 				}
-				buffer.get(value);
 
-				row.append(new SqliteElementData(en, value));
+				row.append(SqliteElementData.slice(en, buffer, len, true));
 
 				//co++;
 
@@ -375,6 +371,7 @@ public class PageReader extends Base {
 		overflowpage.position(4);
 		overflowpage.get(current, 0, job.ps - 4);
 		// overflowpage.get(current, 0, job.ps-4);
+		BufferUtil.releasePageBuffer(overflowpage.array());
 
 		/* Do we have a predecessor page? */
 		if (null != part) {
@@ -0,0 +1,156 @@
+package fqlite.base;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+
+import fqlite.descriptor.TableDescriptor;
+import fqlite.pattern.HeaderAutomaton;
+import fqlite.pattern.HeaderPattern;
+import fqlite.util.Auxiliary;
+
+/**
+ * Distributes the recovery of a list of pages over the threads of a
+ * ForkJoinPool.
+ *
+ * Instead of creating one RecoveryTask per page, the page list is processed
+ * in batches of neighbouring pages. A batch forks the task for the rest of the
+ * list before it starts working, so the work is generated step by step and
+ * idle threads steal the next batch. Every worker thread keeps one
+ * RecoveryTask (with its Auxiliary, Carver and SerialTypeMatcher) and reuses
+ * it for all of its pages.
+ */
+public class PageScheduler extends Base {
+
+	/* upper limit for the number of pages processed in one piece */
+	static final int MAX_BATCH_SIZE = 64;
+
+	private final Job job;
+	private final int[] pages;
+	private final boolean freeList;
+	private final List<TableDescriptor> tables;
+	private final int batchSize;
+	private final RecoveryPhase phase;
+	private final ThreadLocal<RecoveryTask> workers;
+	/* the header patterns of all tables, shared by the workers */
+	private final HeaderAutomaton automaton;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param job the job object
+	 * @param pages the page numbers (starting with 1) to recover in ascending order
+	 * @param freeList true, if the pages belong to the free list
+	 * @param tables tables recovered in job
+	 */
+	public PageScheduler(Job job, int[] pages, boolean freeList, List<TableDescriptor> tables) {
+		this.job = job;
+		this.pages = pages;
+		this.freeList = freeList;
+		this.tables = tables;
+		this.phase = freeList ? RecoveryPhase.FREELIST : RecoveryPhase.SCAN;
+
+		/* small databases should still keep all threads busy */
+		int threads = Math.max(1, Global.numberofThreads);
+		this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, pages.length / (threads * 4)));
+
+		List<HeaderPattern> patterns = new ArrayList<>();
+		for (TableDescriptor td : tables) {
+			patterns.add(td.getHpattern());
+		}
+		this.automaton = new HeaderAutomaton(patterns);
+
+		this.workers = new ThreadLocal<RecoveryTask>() {
+			@Override
+			protected RecoveryTask initialValue() {
+				try {
+					return new RecoveryTask(new Auxiliary(job), job, 0, 0, job.ps, freeList, tables, automaton);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Recover all pages. The method returns after the last page has been
+	 * processed.
+	 *
+	 * @param pool the pool to run on or <code>null</code> to process the pages in the calling thread
+	 */
+	public void run(ForkJoinPool pool) {
+
+		job.runningTasks.addAndGet(pages.length);
+		job.beginProgress(phase, pages.length);
+
+		if (pool == null) {
+			recover(0, pages.length);
+		} else if (pages.length > 0) {
+			pool.invoke(new PageBatch(null, 0, pages.length));
+		}
+
+		/* drop the per-thread state of the calling thread */
+		workers.remove();
+	}
+
+	/**
+	 * Recover the pages between the two indices of the page list.
+	 */
+	private void recover(int from, int to) {
+		RecoveryTask task = workers.get();
+		for (int i = from; i < to; i++) {
+			if (job.isCancelled()) {
+				/* the remaining pages of this batch are dropped */
+				job.runningTasks.addAndGet(i - to);
+				return;
+			}
+			int pagenumber = pages[i];
+			try {
+				task.reset((long) (pagenumber - 1) * job.ps, pagenumber);
+			} catch (IOException e) {
+				err("page ", pagenumber, " is out of bounds. Skipped.");
+				job.runningTasks.decrementAndGet();
+				job.advanceProgress(phase);
+				continue;
+			}
+			task.run();
+			job.advanceProgress(phase);
+		}
+	}
+
+	/**
+	 * A batch of the page list. Before working on its own pages, the batch
+	 * forks a task for the remaining part of the list.
+	 */
+	private class PageBatch extends CountedCompleter<Void> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		PageBatch(CountedCompleter<?> parent, int from, int to) {
+			super(parent);
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void compute() {
+			int end = Math.min(to, from + batchSize);
+			if (end < to && !job.isCancelled()) {
+				addToPendingCount(1);
+				new PageBatch(this, end, to).fork();
+			}
+			recover(from, end);
+			tryComplete();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PageScheduler [pages=" + pages.length + ", freeList=" + freeList + ", tables=" + tables.size() + ", batchSize=" + batchSize + "]";
+	}
+}
@@ -0,0 +1,21 @@
+package fqlite.base;
+
+/**
+ * Receives progress notifications of a running Job.
+ * 
+ * The listener is called by the worker threads, in parallel for phases 
+ * that run at the same time (e.g. the scan and the WAL analysis). 
+ * Implementations have to be thread-safe and should return quickly.
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called when a phase starts, when it is finished and regularly in between.
+	 * 
+	 * @param phase the phase of the recovery
+	 * @param done number of pages (or frames) processed in this phase so far
+	 * @param total total number of pages (or frames) of this phase
+	 * @param rowsFound number of records recovered by the job so far
+	 */
+	void progress(RecoveryPhase phase, long done, long total, long rowsFound);
+}
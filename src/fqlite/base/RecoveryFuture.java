@@ -0,0 +1,32 @@
+package fqlite.base;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The result of <code>Job.processDBAsync()</code>. 
+ * 
+ * Cancelling the future stops the running job: the workers leave their 
+ * current page, the job closes its files and returns. The future completes 
+ * with a <code>TimeoutException</code> if the deadline of the job has passed.
+ */
+public class RecoveryFuture extends CompletableFuture<Integer> {
+
+	private final Job job;
+
+	RecoveryFuture(Job job) {
+		this.job = job;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		job.cancel();
+		return super.cancel(mayInterruptIfRunning);
+	}
+
+	/**
+	 * @return the job this future belongs to
+	 */
+	public Job getJob() {
+		return job;
+	}
+}
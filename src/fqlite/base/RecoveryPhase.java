@@ -0,0 +1,24 @@
+package fqlite.base;
+
+/**
+ * The steps of a recovery job. Used to report the progress of a running job.
+ * 
+ * @see ProgressListener
+ */
+public enum RecoveryPhase {
+	
+	/* exploring the b-trees of all tables and indices */
+	SCHEMA,
+	
+	/* recovering the pages of the free list */
+	FREELIST,
+	
+	/* scanning all pages with a known component */
+	SCAN,
+	
+	/* analyzing the pages of the rollback journal */
+	ROLLBACK_JOURNAL,
+	
+	/* analyzing the frames of the WAL archive */
+	WAL
+}
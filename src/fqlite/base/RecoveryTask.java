@@ -8,9 +8,12 @@ import java.util.List;
 
 import fqlite.descriptor.AbstractDescriptor;
 import fqlite.descriptor.TableDescriptor;
+import fqlite.pattern.HeaderAutomaton;
+import fqlite.pattern.MatchingMode;
 import fqlite.pattern.SerialTypeMatcher;
 import fqlite.types.CarverTypes;
 import fqlite.util.Auxiliary;
+import fqlite.util.BufferUtil;
 
 /**
  * This class represents a recovery task. 
@@ -30,8 +33,16 @@ public class RecoveryTask extends Base implements Runnable {
 	public int pagenumber;
     private Job job;
 	private Auxiliary ct;
-    private StringBuffer firstcol = new StringBuffer(); 
+    private FirstColumnType firstcol = new FirstColumnType(); 
     private boolean freeList = false;
+    /* carver and matcher are kept when the task is reused for another page */
+    private Carver carver;
+    private SerialTypeMatcher matcher;
+    /* header patterns of all tables, to skip the tables that cannot match (optional) */
+    private HeaderAutomaton automaton;
+    private BitSet candidates = new BitSet();
+    /* the freeblocks of the current page, their gaps are carved before the other gaps */
+    private List<Gap> freeblocks = new LinkedList<Gap>();
     
 	/**
 	 * Constructor method.
@@ -47,6 +58,24 @@ public class RecoveryTask extends Base implements Runnable {
 	 * @throws IOException if an I/O error occurs.
 	 */
 	public RecoveryTask(Auxiliary ct, Job job, long offset, int pagenumber, int pagesize, boolean freeList, List<TableDescriptor> tables) throws IOException {
+		this(ct, job, offset, pagenumber, pagesize, freeList, tables, null);
+	}
+
+	/**
+	 * Constructor method.
+	 * 
+	 * @param ct auxiliary object.
+	 * @param job the job object.
+	 * @param offset the offset
+	 * @param pagenumber the page number
+	 * @param pagesize the page size
+	 * @param freeList if it is a free list
+	 * @param tables tables recovered in job
+	 * @param automaton the compiled header patterns of the tables or null
+	 * 
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public RecoveryTask(Auxiliary ct, Job job, long offset, int pagenumber, int pagesize, boolean freeList, List<TableDescriptor> tables, HeaderAutomaton automaton) throws IOException {
 		
 		
 		if (job.file.size() < offset)
@@ -59,9 +88,31 @@ public class RecoveryTask extends Base implements Runnable {
 		this.ct = ct;
 		this.freeList = freeList;
 		this.tables = tables;
+		this.automaton = automaton;
 		this.visit = new BitSet(pagesize);
 	}
 
+	/**
+	 * Reuse this task for another page. All page related state is reset,
+	 * the Auxiliary, Carver and SerialTypeMatcher objects are kept.
+	 * 
+	 * @param offset the offset
+	 * @param pagenumber the page number
+	 * @throws IOException if the offset is outside the file
+	 */
+	public void reset(long offset, int pagenumber) throws IOException {
+		
+		if (job.file.size() < offset)
+			throw new IOException("offset is out of bounds");
+		
+		this.offset = offset;
+		this.pagenumber = pagenumber;
+		this.buffer = null;
+		this.visit.clear();
+		this.firstcol.reset();
+		this.freeblocks.clear();
+	}
+
 	/**
 	 * This method called to recover regular data records startRegion a database page.
 	 * 
@@ -74,6 +125,11 @@ public class RecoveryTask extends Base implements Runnable {
 		
 		try {
 			
+			/* the job was cancelled -> skip the remaining pages */
+			if (job.isCancelled()) {
+				return -1;
+			}
+			
 			debug("Offset in recover()::", offset);
 			/* read the db page into buffer */
 			buffer = job.readPageWithOffset(offset, pagesize);
@@ -144,23 +200,14 @@ public class RecoveryTask extends Base implements Runnable {
 
 			/************** regular leaf page with data ******************/
 
-			//boolean freeblocks = false;
-			if (type == 8)
-			{
-				// offset 1-2 let us find the first free block offset for carving
-				byte fboffset[] = new byte[2];
-				buffer.position(1);
-				buffer.get(fboffset);
-				//ByteBuffer fboff = ByteBuffer.wrap(fboffset);
-				//int ffb = Auxiliary.TwoByteBuffertoInt(fboff);
-
-				// Note: The two-byte integer at offset 1 of the page gives the start of the first freeblock 
-				// on the page, or is zero if there are no freeblocks.
-				//if (ffb > 0)
-				//	freeblocks = true;  
-				// A freeblock marks an area between 2 normal cells (that was removed for example)
-				// every byte before the cell content region (on offset 5) is no part of the freeblock!!! 
-			}	
+			// Note: The two-byte integer at offset 1 of the page gives the start of the first freeblock 
+			// on the page, or is zero if there are no freeblocks.
+			// A freeblock marks an area between 2 normal cells (that was removed for example)
+			// every byte before the cell content region (on offset 5) is no part of the freeblock!!! 
+			int ffb = buffer.getShort(1) & 0xFFFF;
+			
+			// offset 7 holds the number of fragmented free bytes within the cell content area
+			int fragmented = buffer.get(7) & 0xFF;
 				
 			int ccrstart = job.ps;
 
@@ -199,6 +246,9 @@ public class RecoveryTask extends Base implements Runnable {
 			 * 
 			 ***************************************************************/
 			int last = 0;
+			
+			/* false, if a cell could not be read (only carving can find it then) */
+			boolean allCellsRead = true;
 
 			/* go on with the cell pointer array */
 			for (int i = 0; i < cp; i++) {
@@ -225,6 +275,8 @@ public class RecoveryTask extends Base implements Runnable {
 				if (celloff < buffer.limit() - 20) {
 				    row = ct.readRecord(celloff, buffer, pagenumber, visit, type, Integer.MAX_VALUE, firstcol,withoutROWID,-1);
 				}
+				if (null == row)
+					allCellsRead = false;
 								
 				// add new line to output
 				if (null != row) {
@@ -395,16 +447,78 @@ public class RecoveryTask extends Base implements Runnable {
 			 * 
 			 ***************************************************************/
 			
+			/* 
+			 * A page without freeblocks, without fragmented bytes and with an empty 
+			 * unallocated area has no room for deleted cells: every byte of the 
+			 * cell content area belongs to a regular cell. If all of them have been 
+			 * read, there is nothing left to carve.
+			 */
+			if (allCellsRead && ffb == 0 && fragmented == 0 && isZero(headerend, ccrstart == 0 ? 65536 : ccrstart)) {
+				debug("no deleted cells on page ", pagenumber);
+				return 0;
+			}
+			
+			/* deleted cells are usually part of a freeblock -> try these regions first */
+			walkFreeblocks(ffb, headerend);
+			
 			/* now we are ready to carve the rest of the page */
 			carve(null);
 			
 		} catch (IOException err) {
 			throw err;
+		} finally {
+			/* the page buffer goes back to the pool of this worker thread */
+			if (buffer != null) {
+				BufferUtil.releasePageBuffer(buffer.array());
+				buffer = null;
+			}
 		}
 
 		return 0;
 	}
 
+	/**
+	 * Are all bytes of the page in the given range zero?
+	 */
+	private boolean isZero(int from, int to) {
+		to = Math.min(to, pagesize);
+		for (int i = from; i < to; i++) {
+			if (buffer.get(i) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Follow the linked list of freeblocks of a b-tree page. Each freeblock 
+	 * starts with the offset of the next freeblock (0 for the last one) and 
+	 * its size, both 2 byte values. The freeblocks are sorted by their offset, 
+	 * so a chain that goes backwards (e.g. a cycle) or leaves the page is 
+	 * damaged. The walk stops there and keeps the freeblocks found so far.
+	 * 
+	 * @param first the offset of the first freeblock (page offset 1)
+	 * @param headerend the end of the cell pointer array
+	 */
+	private void walkFreeblocks(int first, int headerend) {
+		int next = first;
+		int min = headerend;
+		while (next != 0) {
+			if (next < min || next + 4 > pagesize) {
+				debug("freeblock chain damaged on page ", pagenumber, " at offset ", next);
+				return;
+			}
+			int size = buffer.getShort(next + 2) & 0xFFFF;
+			if (size < 4 || next + size > pagesize) {
+				debug("freeblock with invalid size ", size, " on page ", pagenumber);
+				return;
+			}
+			freeblocks.add(new Gap(next, next + size - 1));
+			min = next + size;
+			next = buffer.getShort(next) & 0xFFFF;
+		}
+		debug("freeblocks on page ", pagenumber, ": ", freeblocks.size());
+	}
+
 	/**
 	 * Quick lookup. Does a given hex-String starts with Zeros?
 	 * @param s the String to check
@@ -430,46 +544,47 @@ public class RecoveryTask extends Base implements Runnable {
 	public LinkedList<Gap> findGaps() {
 		LinkedList <Gap> gaps = new LinkedList<Gap>();
 
-		int from = 0;
-
-		/* are there any regions left in the page ? */
-		for (int i = 0; i < pagesize; i++) {
-
-			if (!visit.get(i)) {
-				from = i;
-
-				int to = i;
-
-				while (!visit.get(++i) && i < (pagesize - 1)) {
-					to++;
-				}
-
-				if (to - from >= 4) {
-
-					/* check for zero bytes */
-					boolean isNull = false;
-					if (buffer.get(from) == 0) {
-						isNull = true;
-						for (int index = from; index < to; index++) {
-							if (0 != buffer.get(index))
-								isNull = false;
+		/* are there any regions left in the page ? jump from region to region */
+		int i = visit.nextClearBit(0);
+		while (i < pagesize) {
+
+			int from = i;
+
+			/* the region ends before the next visited byte, the last byte of the page is never part of it */
+			int next = visit.nextSetBit(from + 1);
+			if (from < pagesize - 1)
+				i = (next < 0 || next > pagesize - 1) ? pagesize - 1 : next;
+			else
+				i = pagesize;
+			int to = i - 1;
+
+			if (to - from >= 4) {
+
+				/* check for zero bytes */
+				boolean isNull = false;
+				if (buffer.get(from) == 0) {
+					isNull = true;
+					for (int index = from; index < to; index++) {
+						if (0 != buffer.get(index)) {
+							isNull = false;
+							break;
 						}
 					}
-					// skip NULL-Byte areas - mark as visited
-					if (isNull)
-						visit.set(from, to);
-					else {
-						Gap g = new Gap(from, to);
-						if (!gaps.contains(g))
-						debug("ohne match : ", (job.ps * (pagenumber - 1) + from), " - ",
-								(job.ps * (pagenumber - 1) + to), " Bytes");
-						gaps.add(g);
-					}
 				}
-				from = i;
-
+				// skip NULL-Byte areas - mark as visited
+				if (isNull)
+					visit.set(from, to);
+				else {
+					Gap g = new Gap(from, to);
+					if (LOGLEVEL <= DEBUG && !gaps.contains(g))
+					debug("ohne match : ", (job.ps * (pagenumber - 1) + from), " - ",
+							(job.ps * (pagenumber - 1) + to), " Bytes");
+					gaps.add(g);
+				}
 			}
 
+			i = visit.nextClearBit(i + 1);
+
 		} // end of finding gaps in BitSet
 	
 		
@@ -486,10 +601,16 @@ public class RecoveryTask extends Base implements Runnable {
 		Carver c = crv;
 		
 		if (null == c)
+		{
 			/* no type could be found in the first byte */
 			/* Maybe the whole page was drop because of a drop component command ? */
 			/* start carving on the complete page */
-			c = new Carver(job, buffer, visit, pagenumber);
+			if (null == carver)
+				carver = new Carver(job, buffer, visit, pagenumber);
+			else
+				carver.reset(buffer, visit, pagenumber);
+			c = carver;
+		}
 
 		//Matcher mat = null;
 		// boolean match = false;
@@ -525,6 +646,20 @@ public class RecoveryTask extends Base implements Runnable {
 			return;
 		}	
 		
+		/* create matcher object for constrain check, one for all tables of the page */
+		if (null == matcher)
+			matcher = new SerialTypeMatcher(buffer);
+		else
+			matcher.reset(buffer);
+		SerialTypeMatcher stm = matcher;
+
+		/* one sweep over the gaps for all tables finds the tables and modes that can match at all */
+		candidates.clear();
+		if (null != automaton) {
+			for (Gap g : gaps)
+				automaton.scan(stm, g.from + 4, g.to, candidates);
+		}
+
 		/* try out all component schema(s) */
 		for (int n = 0; n < tab.size(); n++) {
 			tdesc = tab.get(n);
@@ -536,95 +671,146 @@ public class RecoveryTask extends Base implements Runnable {
 			String tablename = tab.get(n).tblname;
 			if (tablename.startsWith("__UNASSIGNED"))
 				continue;
-			/* create matcher object for constrain check */
-			SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
+			if (job.isCancelled())
+				return;
+
+			int p = null == automaton ? -1 : automaton.indexOf(tdesc.getHpattern());
+			boolean normal = possible(p, MatchingMode.NORMAL);
+			boolean noheader = possible(p, MatchingMode.NOHEADER);
+			boolean no1stcol = possible(p, MatchingMode.NO1stCOL);
+			if (!normal && !noheader && !no1stcol) {
+				debug("no header of ", tablename, " on page ", pagenumber);
+				continue;
+			}
+
+			/* first the gaps with freeblocks, then the gaps that have not been tried yet */
+			List<Gap> tried = new LinkedList<Gap>();
+			for (int round = freeblocks.isEmpty() ? 1 : 0; round < 2; round++) {
 
-			gaps = findGaps();
+				gaps = normal ? regions(round, tried) : new LinkedList<Gap>();
 			
-			for (int a = 0; a < gaps.size(); a++) {
+				for (int a = 0; a < gaps.size(); a++) {
 			
-				Gap next = gaps.get(a);
+					Gap next = gaps.get(a);
 
 				
-				if (next.to - next.from > 5)
-					/* do we have at least one match ? */
-					if (c.carve(next.from+4,next.to, stm, CarverTypes.NORMAL, tab.get(n),firstcol) != Global.CARVING_ERROR) {
-						debug("*****************************  STEP NORMAL finished with matches");
+					if (next.to - next.from > 5)
+						/* do we have at least one match ? */
+						if (c.carve(next.from+4,next.to, stm, CarverTypes.NORMAL, tab.get(n),firstcol) != Global.CARVING_ERROR) {
+							debug("*****************************  STEP NORMAL finished with matches");
 						
-					}
-			}
+						}
+				}
 				
-			gaps = findGaps();
+				gaps = noheader ? regions(round, tried) : new LinkedList<Gap>();
 			
-			for (int a = 0; a < gaps.size(); a++) {
+				for (int a = 0; a < gaps.size(); a++) {
 				
-				Gap next = gaps.get(a);
+					Gap next = gaps.get(a);
 				
- 				if (c.carve(next.from+4,next.to, stm, CarverTypes.COLUMNSONLY, tab.get(n),firstcol) != Global.CARVING_ERROR) {
-					debug("*****************************  STEP COLUMNSONLY finished with matches");
+	 				if (c.carve(next.from+4,next.to, stm, CarverTypes.COLUMNSONLY, tab.get(n),firstcol) != Global.CARVING_ERROR) {
+						debug("*****************************  STEP COLUMNSONLY finished with matches");
 					
+					}
 				}
-			}
 			
-			gaps = findGaps();
+				gaps = no1stcol ? regions(round, tried) : new LinkedList<Gap>();
 			
 			
-			for (int a = 0; a < gaps.size(); a++) {
+				for (int a = 0; a < gaps.size(); a++) {
 				
-				Gap next = gaps.get(a);
+					Gap next = gaps.get(a);
 				
 				
-				if (c.carve(next.from+4,next.to, stm, CarverTypes.FIRSTCOLUMNMISSING, tab.get(n),firstcol) != Global.CARVING_ERROR) {
-					debug("*****************************  STEP FIRSTCOLUMNMISSING finished with matches");
+					if (c.carve(next.from+4,next.to, stm, CarverTypes.FIRSTCOLUMNMISSING, tab.get(n),firstcol) != Global.CARVING_ERROR) {
+						debug("*****************************  STEP FIRSTCOLUMNMISSING finished with matches");
 					
-				}
+					}
 			
-			}
+				}
 			
 			
 		
-			/**
-			 * When a record deletion occurs, the first 2 bytes of the cell are set to the
-			 * offset value of next free block and latter 2 bytes covers the length of the
-			 * current free block. Because of this, the first 4 bytes of a deleted cell
-			 * differ startRegion the normal data. Accordingly, we need a different approach to
-			 * recover the data records.
-			 * 
-			 * In most cases, at least the header length information is overwritten. Boyond
-			 * this, sometimes, also the first column type field is overwritten too.
-			 * 
-			 * We have to cases:
-			 * 
-			 * (1) only the first column of the header is missing, but the rest of the
-			 * header is intact.
-			 * 
-			 * (2) both header length field plus first column are overwritten.
-			 * 
-			 * [cell size | rowid | header size | header bytes | payload ]
-			 * 
-			 * for a deleted cell is looks maybe like this
-			 * 
-			 * [offset of next free block | length of the current free block | ]
-			 */
-
-			/* There are still gaps? */
-			gaps = findGaps();
-			
-			for (int a = 0; a < gaps.size(); a++) {
+				/**
+				 * When a record deletion occurs, the first 2 bytes of the cell are set to the
+				 * offset value of next free block and latter 2 bytes covers the length of the
+				 * current free block. Because of this, the first 4 bytes of a deleted cell
+				 * differ startRegion the normal data. Accordingly, we need a different approach to
+				 * recover the data records.
+				 * 
+				 * In most cases, at least the header length information is overwritten. Boyond
+				 * this, sometimes, also the first column type field is overwritten too.
+				 * 
+				 * We have to cases:
+				 * 
+				 * (1) only the first column of the header is missing, but the rest of the
+				 * header is intact.
+				 * 
+				 * (2) both header length field plus first column are overwritten.
+				 * 
+				 * [cell size | rowid | header size | header bytes | payload ]
+				 * 
+				 * for a deleted cell is looks maybe like this
+				 * 
+				 * [offset of next free block | length of the current free block | ]
+				 */
+
+				/* There are still gaps? */
+				gaps = no1stcol ? regions(round, tried) : new LinkedList<Gap>();
+			
+				for (int a = 0; a < gaps.size(); a++) {
 				
 				
-				Gap next = gaps.get(a);
+					Gap next = gaps.get(a);
 			
-				/* one last try with 4+1 instead of 4 Bytes */
-				c.carve(next.from+4+1,next.to, stm, CarverTypes.FIRSTCOLUMNMISSING, tab.get(n),firstcol); 
+					/* one last try with 4+1 instead of 4 Bytes */
+					c.carve(next.from+4+1,next.to, stm, CarverTypes.FIRSTCOLUMNMISSING, tab.get(n),firstcol); 
 				
-			}
-			
+				}
+
+			} // end of rounds
 
 		} // end of tables ( component fingerprint )
 
 	}
 
+	/**
+	 * The regions for the next carving pass. In round 0 these are the gaps 
+	 * that overlap a freeblock, they are added to <code>tried</code>. In 
+	 * round 1 these are the gaps left, except the ones already tried. Gaps 
+	 * only shrink, so a gap that overlaps a tried gap is a part of it. 
+	 */
+	private List<Gap> regions(int round, List<Gap> tried) {
+		LinkedList<Gap> gaps = findGaps();
+		LinkedList<Gap> result = new LinkedList<Gap>();
+		for (Gap g : gaps) {
+			boolean overlaps = overlaps(g, round == 0 ? freeblocks : tried);
+			if (round == 0 && overlaps) {
+				result.add(g);
+				tried.add(g);
+			} else if (round != 0 && !overlaps) {
+				result.add(g);
+			}
+		}
+		return result;
+	}
+
+	private static boolean overlaps(Gap g, List<Gap> regions) {
+		for (Gap r : regions) {
+			if (g.from <= r.to && r.from <= g.to)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Can a header of the pattern with the given index be found on this page?
+	 * Without an automaton, every pattern is possible.
+	 */
+	private boolean possible(int pattern, MatchingMode mode) {
+		return pattern < 0 || HeaderAutomaton.matches(candidates, pattern, mode);
+	}
+
 	@Override
 	public void run() {
 		try {
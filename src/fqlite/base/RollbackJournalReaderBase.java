@@ -15,7 +15,8 @@ import fqlite.descriptor.TableDescriptor;
 import fqlite.pattern.SerialTypeMatcher;
 import fqlite.types.CarverTypes;
 import fqlite.util.Auxiliary;
-import fqlite.util.RandomAccessFileReader;
+import fqlite.util.BufferUtil;
+import fqlite.util.LongPositionByteBuffer;
 
 /**
  * The class analyses a Rollback Journal file and writes the found records into a file.
@@ -36,7 +37,7 @@ public abstract class RollbackJournalReaderBase extends Base {
 	public static final String MAGIC_HEADER_STRING = "d9d505f920a163d7";
 	
 	/* An asynchronous channel for reading, writing, and manipulating a file. */
-	public RandomAccessFileReader file;
+	public LongPositionByteBuffer file;
 
 	/* pagesize */
 	int ps;
@@ -68,7 +69,7 @@ public abstract class RollbackJournalReaderBase extends Base {
 	private Auxiliary ct;
 
 	/* knowlegde store */
-	private StringBuffer firstcol = new StringBuffer();
+	private FirstColumnType firstcol = new FirstColumnType();
 
 	/* buffer that holds the current page */
 	protected ByteBuffer buffer;
@@ -112,7 +113,7 @@ public abstract class RollbackJournalReaderBase extends Base {
 
 		/* try to open the db-file in read-only mode */
 		try {
-			file = new RandomAccessFileReader(p);
+			file = job.openFile(p);
 		} catch (Exception e) {
             err("Cannot open RollbackJournal-file", p.getFileName());
 			return;
@@ -191,10 +192,18 @@ public abstract class RollbackJournalReaderBase extends Base {
 
 		
 		
+		job.beginProgress(RecoveryPhase.ROLLBACK_JOURNAL, (file.size() - 512) / (ps + 8));
+
 		boolean next = false;
 		int numberofpages = 0;
 		do
 		{
+			/* stop here, if the job was cancelled */
+			if (job.isCancelled()) {
+				info("Rollback journal analysis cancelled.");
+				break;
+			}
+			
 			file.position(journalpointer);
 			/* get the page number of the journal page in main db */
 			
@@ -212,6 +221,11 @@ public abstract class RollbackJournalReaderBase extends Base {
 			
 			analyzePage();
 			
+			/* the page has been analyzed, recycle the buffer for the next journal record */
+			BufferUtil.releasePageBuffer(buffer.array());
+			buffer = null;
+			job.advanceProgress(RecoveryPhase.ROLLBACK_JOURNAL);
+			
 			/* set pointer to next journal record  -> currentpos + 4 Byte for the page number in mainDB + pagesize + 4 Byte for Checksum */ 
 			journalpointer += (4 + ps + 4);
 			
@@ -545,6 +559,9 @@ public abstract class RollbackJournalReaderBase extends Base {
 			return;
 		}
 
+		/* create matcher object for constrain check, one for all tables of the page */
+		SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
+
 		/* try out all component schema(s) */
 		for (int n = 0; n < tab.size(); n++) {
 			tdesc = tab.get(n);
@@ -556,9 +573,6 @@ public abstract class RollbackJournalReaderBase extends Base {
 			String tablename = tab.get(n).tblname;
 			if (tablename.startsWith("__UNASSIGNED"))
 				continue;
-			/* create matcher object for constrain check */
-			SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
-
 			gaps = findGaps();
 
 			for (int a = 0; a < gaps.size(); a++) {
@@ -741,6 +755,9 @@ public abstract class RollbackJournalReaderBase extends Base {
 			return;
 		}
 
+		/* create matcher object for constrain check, one for all tables of the page */
+		SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
+
 		/* try out all component schema(s) */
 		for (int n = 0; n < tab.size(); n++) {
 			tdesc = tab.get(n);
@@ -753,9 +770,6 @@ public abstract class RollbackJournalReaderBase extends Base {
 			debug("Check component : ", tablename);
 			if (tablename.startsWith("__UNASSIGNED"))
 				continue;
-			/* create matcher object for constrain check */
-			SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
-
 			gaps = findGaps();
 
 			for (int a = 0; a < gaps.size(); a++) {
@@ -0,0 +1,70 @@
+package fqlite.base;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+import fqlite.descriptor.TableDescriptor;
+
+/**
+ * Receives the records recovered by a Job.
+ * 
+ * Rows are handed over as soon as they are found, so a sink can write them 
+ * to disk (or any other destination) instead of keeping them in memory. 
+ * The methods are called concurrently by the worker threads, implementations 
+ * have to be thread-safe.
+ * 
+ * The values of a row reference the page buffer of the worker thread that 
+ * found it. The buffer is recycled after the page has been processed, which 
+ * rewrites the values on that thread. A sink that keeps a row after 
+ * <code>accept()</code> returned (or hands it over to another thread) has to 
+ * call <code>row.detach()</code> first.
+ * 
+ * By default, a Job collects all rows in memory (see <code>InMemoryRowSink</code>). 
+ * Use <code>Job.setRowSink()</code> to install a different sink before 
+ * <code>processDB()</code> is called. The sink is closed at the end of the job.
+ */
+public interface RowSink extends Closeable {
+
+	/**
+	 * Called for every table (including the <code>__UNASSIGNED</code> table) 
+	 * once its definition is known, before any row of this table is passed in. 
+	 * 
+	 * @param td the table definition
+	 */
+	default void tableDiscovered(TableDescriptor td) {
+	}
+
+	/**
+	 * Receive one recovered row. The table of the row is given by 
+	 * <code>row.getTableName()</code>.
+	 * 
+	 * @param row the row
+	 */
+	void accept(SqliteInternalRow row);
+
+	/**
+	 * Receive several rows at once. 
+	 * 
+	 * @param rows the rows
+	 */
+	default void acceptBatch(Collection<SqliteInternalRow> rows) {
+		for (SqliteInternalRow row : rows) {
+			accept(row);
+		}
+	}
+
+	/**
+	 * Wait until all rows passed in so far have reached their destination. 
+	 * The job calls this method before <code>linesReady()</code>.
+	 */
+	default void flush() throws IOException {
+	}
+
+	/**
+	 * Called after the last row has been passed in.
+	 */
+	@Override
+	default void close() throws IOException {
+	}
+}
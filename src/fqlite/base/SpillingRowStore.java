@@ -0,0 +1,561 @@
+package fqlite.base;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import fqlite.types.SerialTypes;
+import fqlite.types.StorageClasses;
+
+/**
+ * A RowSink for recoveries that do not fit into the heap.
+ *
+ * Rows are collected per table in memory until the estimated size of all
+ * buffered rows exceeds a limit. Then the buffers are sorted by offset and
+ * written to a temporary file in a compact binary form (one run per table and
+ * spill). <code>iterator()</code> merges the runs of a table and the rows
+ * still in memory back into one sequence, ordered by offset. Rows with the
+ * same offset keep the order in which they arrived. If a table has more than
+ * <code>MAX_FAN_IN</code> runs, its oldest runs are merged into a new run
+ * first, so the number of open files stays bounded.
+ *
+ * The store is filled by the job and read afterwards (e.g. in
+ * <code>linesReady()</code> or after <code>processDB()</code> returned). Call
+ * <code>delete()</code> to remove the temporary files.
+ *
+ * All methods that add rows are synchronized. Rows are detached from their
+ * page buffers before they are buffered, since they are written to disk
+ * later, possibly by another worker thread.
+ */
+public class SpillingRowStore extends Base implements RowSink {
+
+	/* default limit for the rows kept in memory */
+	public static final long DEFAULT_MEMORY_LIMIT = 256L * 1024 * 1024;
+
+	/* maximum number of runs that are merged (and open) at the same time */
+	public static final int MAX_FAN_IN = 64;
+
+	/* rough per-object overhead used for the size estimation */
+	private static final int ROW_OVERHEAD = 96;
+	private static final int ELEMENT_OVERHEAD = 48;
+
+	/* kind of a stored value */
+	private static final int NULL_ELEMENT = 0;
+	private static final int PLAIN_ELEMENT = 1;
+	private static final int TYPED_ELEMENT = 2;
+
+	private static final SerialTypes[] SERIAL_TYPES = SerialTypes.values();
+	private static final StorageClasses[] STORAGE_CLASSES = StorageClasses.values();
+
+	private static final Comparator<SqliteInternalRow> BY_OFFSET = Comparator.comparingLong(SqliteInternalRow::getOffset);
+
+	private final long memoryLimit;
+	private final Path tempDir;
+
+	/* rows that are still in memory, the tables in the order of their first row */
+	private final Map<String, List<SqliteInternalRow>> buffers = new LinkedHashMap<>();
+	private final Map<String, Map<String, Integer>> columnMaps = new HashMap<>();
+	private final Map<String, Long> rowCounts = new HashMap<>();
+	private long bufferedBytes = 0;
+
+	/* spilled runs per table */
+	private final Map<String, List<Run>> runs = new HashMap<>();
+	private final List<Path> files = new ArrayList<>();
+	private long spilledBytes = 0;
+
+	/* charsets are stored by their index in this list */
+	private final List<Charset> charsets = new ArrayList<>();
+
+	private boolean closed = false;
+
+	public SpillingRowStore() {
+		this(DEFAULT_MEMORY_LIMIT, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param memoryLimit approximate number of bytes of row data kept in memory
+	 * @param tempDir directory for the temporary files, <code>null</code> for the default
+	 */
+	public SpillingRowStore(long memoryLimit, Path tempDir) {
+		this.memoryLimit = memoryLimit;
+		this.tempDir = tempDir;
+	}
+
+	@Override
+	public synchronized void accept(SqliteInternalRow row) {
+		if (closed)
+			throw new IllegalStateException("store is closed");
+		/* the row is kept and may be spilled by another thread -> it must not reference the page buffer */
+		row.detach();
+		String table = row.getTableName();
+		List<SqliteInternalRow> buffer = buffers.get(table);
+		if (null == buffer) {
+			buffer = new ArrayList<>();
+			buffers.put(table, buffer);
+			columnMaps.put(table, row.getColumnNamesMap());
+		}
+		buffer.add(row);
+		rowCounts.merge(table, 1L, Long::sum);
+		bufferedBytes += estimateSize(row);
+
+		if (bufferedBytes > memoryLimit) {
+			try {
+				spill();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private static long estimateSize(SqliteInternalRow row) {
+		long size = ROW_OVERHEAD + 2L * (length(row.getRecordType()) + length(row.getLineSuffix()));
+		for (SqliteElementData d : row.getRowData()) {
+			size += ELEMENT_OVERHEAD;
+			if (d != null)
+				size += d.getLength();
+		}
+		return size;
+	}
+
+	private static int length(String s) {
+		return null == s ? 0 : s.length();
+	}
+
+	/**
+	 * Write all buffered rows to a new temporary file.
+	 */
+	private void spill() throws IOException {
+		Path file = newRunFile();
+
+		try (FileOutputStream fos = new FileOutputStream(file.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+			for (Map.Entry<String, List<SqliteInternalRow>> e : buffers.entrySet()) {
+				List<SqliteInternalRow> buffer = e.getValue();
+				if (buffer.isEmpty())
+					continue;
+				buffer.sort(BY_OFFSET);
+				out.flush();
+				long start = fos.getChannel().position();
+				for (SqliteInternalRow row : buffer) {
+					writeRow(out, row);
+				}
+				runs.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(new Run(file, start, buffer.size()));
+				buffer.clear();
+			}
+			out.flush();
+			spilledBytes += fos.getChannel().position();
+		}
+		info("spilled ", bufferedBytes, " bytes of rows to ", file);
+		bufferedBytes = 0;
+	}
+
+	private Path newRunFile() throws IOException {
+		Path file = null == tempDir ? Files.createTempFile("fqlite", ".run") : Files.createTempFile(tempDir, "fqlite", ".run");
+		files.add(file);
+		file.toFile().deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Merge the oldest <code>MAX_FAN_IN</code> runs of a table into a new run.
+	 * The new run takes their place, so rows with the same offset keep their
+	 * order. The old runs stay in their files, which hold the runs of other
+	 * tables as well.
+	 */
+	private void mergeRuns(String tableName, List<Run> tableRuns) throws IOException {
+		List<Run> merged = tableRuns.subList(0, MAX_FAN_IN);
+		Path file = newRunFile();
+		long count = 0;
+		try (RowIterator rows = new RowIterator(sources(tableName, merged));
+				FileOutputStream fos = new FileOutputStream(file.toFile());
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+			while (rows.hasNext()) {
+				writeRow(out, rows.next());
+				count++;
+			}
+			out.flush();
+			spilledBytes += fos.getChannel().position();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		merged.clear();
+		tableRuns.add(0, new Run(file, 0, count));
+		info("merged ", MAX_FAN_IN, " runs of ", tableName, " into ", file);
+	}
+
+	private List<Source> sources(String tableName, List<Run> tableRuns) throws IOException {
+		List<Source> sources = new ArrayList<>();
+		try {
+			for (Run run : tableRuns) {
+				sources.add(new RunSource(run, sources.size(), tableName, columnMaps.get(tableName)));
+			}
+		} catch (IOException e) {
+			for (Source s : sources)
+				s.close();
+			throw e;
+		}
+		return sources;
+	}
+
+	private void writeRow(DataOutputStream out, SqliteInternalRow row) throws IOException {
+		out.writeLong(row.getOffset());
+		writeString(out, row.getRecordType());
+		writeString(out, row.getLineSuffix());
+		List<SqliteElementData> data = row.getRowData();
+		out.writeInt(data.size());
+		for (SqliteElementData d : data) {
+			if (null == d) {
+				out.writeByte(NULL_ELEMENT);
+				continue;
+			}
+			SqliteElement column = d.getColumn();
+			if (null == column) {
+				out.writeByte(PLAIN_ELEMENT);
+			} else {
+				out.writeByte(TYPED_ELEMENT);
+				out.writeByte(column.type.ordinal());
+				out.writeByte(null == column.serial ? -1 : column.serial.ordinal());
+				out.writeInt(column.length);
+				out.writeShort(charsetIndex(column.charset));
+			}
+			out.writeShort(charsetIndex(d.getCharset()));
+			if (d.isNull()) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(d.getLength());
+				d.writeTo(out);
+			}
+		}
+	}
+
+	private int charsetIndex(Charset charset) {
+		if (null == charset)
+			return -1;
+		int idx = charsets.indexOf(charset);
+		if (idx < 0) {
+			charsets.add(charset);
+			idx = charsets.size() - 1;
+		}
+		return idx;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		writeBytes(out, null == s ? null : s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+		if (null == b) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * No more rows are added. The rows can still be read, the temporary
+	 * files are kept until <code>delete()</code> is called.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		info(this);
+	}
+
+	/**
+	 * @return the names of all tables with at least one row, in the order of their first row
+	 */
+	public synchronized Set<String> getTablesNames() {
+		return new LinkedHashSet<>(buffers.keySet());
+	}
+
+	/**
+	 * @param tableName the table
+	 * @return number of rows stored for the table
+	 */
+	public synchronized long getRowCount(String tableName) {
+		Long count = rowCounts.get(tableName);
+		return null == count ? 0 : count;
+	}
+
+	/**
+	 * Iterate over the rows of a table, ordered by offset. Rows added after
+	 * this call are not included. The iterator has to be closed to release
+	 * the open files, at most <code>MAX_FAN_IN</code> of them.
+	 *
+	 * @param tableName the table
+	 * @return the rows
+	 * @throws IOException if a temporary file cannot be opened
+	 */
+	public synchronized RowIterator iterator(String tableName) throws IOException {
+		List<Run> tableRuns = runs.getOrDefault(tableName, Collections.emptyList());
+		while (tableRuns.size() > MAX_FAN_IN) {
+			mergeRuns(tableName, tableRuns);
+		}
+		List<Source> sources = sources(tableName, tableRuns);
+		List<SqliteInternalRow> buffer = buffers.get(tableName);
+		if (buffer != null && !buffer.isEmpty()) {
+			buffer.sort(BY_OFFSET);
+			sources.add(new ListSource(new ArrayList<>(buffer), sources.size()));
+		}
+		return new RowIterator(sources);
+	}
+
+	/**
+	 * Remove the temporary files and drop all rows.
+	 */
+	public synchronized void delete() {
+		for (Path file : files) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				warning("cannot delete ", file);
+			}
+		}
+		files.clear();
+		runs.clear();
+		buffers.clear();
+		rowCounts.clear();
+		bufferedBytes = 0;
+	}
+
+	/**
+	 * @return number of bytes written to the temporary files
+	 */
+	public synchronized long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SpillingRowStore [tables=" + buffers.size() + ", files=" + files.size() + ", spilledBytes=" + spilledBytes + ", bufferedBytes=" + bufferedBytes + "]";
+	}
+
+	/**
+	 * The rows of one table written by one spill.
+	 */
+	private static class Run {
+		final Path file;
+		final long start;
+		final long count;
+
+		Run(Path file, long start, long count) {
+			this.file = file;
+			this.start = start;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * A sorted sequence of rows, one input of the merge.
+	 */
+	private abstract static class Source implements Closeable {
+		/* rows from earlier runs come first if the offsets are equal */
+		final int order;
+		SqliteInternalRow current;
+
+		Source(int order) {
+			this.order = order;
+		}
+
+		/**
+		 * Move to the next row.
+		 *
+		 * @return false, if there are no more rows
+		 */
+		abstract boolean advance() throws IOException;
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	private static class ListSource extends Source {
+		private final Iterator<SqliteInternalRow> it;
+
+		ListSource(List<SqliteInternalRow> rows, int order) {
+			super(order);
+			this.it = rows.iterator();
+		}
+
+		@Override
+		boolean advance() {
+			current = it.hasNext() ? it.next() : null;
+			return current != null;
+		}
+	}
+
+	private class RunSource extends Source {
+		private final DataInputStream in;
+		private final String tableName;
+		private final Map<String, Integer> columnMap;
+		private long remaining;
+
+		RunSource(Run run, int order, String tableName, Map<String, Integer> columnMap) throws IOException {
+			super(order);
+			FileChannel channel = FileChannel.open(run.file, StandardOpenOption.READ);
+			channel.position(run.start);
+			this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+			this.tableName = tableName;
+			this.columnMap = columnMap;
+			this.remaining = run.count;
+		}
+
+		@Override
+		boolean advance() throws IOException {
+			if (remaining == 0) {
+				current = null;
+				return false;
+			}
+			remaining--;
+			current = readRow();
+			return true;
+		}
+
+		private SqliteInternalRow readRow() throws IOException {
+			SqliteInternalRow row = new SqliteInternalRow();
+			row.setTableName(tableName);
+			row.setColumnNamesMap(columnMap);
+			row.setOffset(in.readLong());
+			row.setRecordType(readString());
+			row.setLineSuffix(readString());
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				int kind = in.readByte();
+				if (kind == NULL_ELEMENT) {
+					row.append(null);
+					continue;
+				}
+				SqliteElement column = null;
+				if (kind == TYPED_ELEMENT) {
+					SerialTypes type = SERIAL_TYPES[in.readByte()];
+					int serial = in.readByte();
+					int length = in.readInt();
+					Charset charset = charset(in.readShort());
+					column = new SqliteElement(type, serial < 0 ? null : STORAGE_CLASSES[serial], length, charset);
+				}
+				Charset charset = charset(in.readShort());
+				row.append(new SqliteElementData(column, readBytes(), charset));
+			}
+			return row;
+		}
+
+		private Charset charset(int idx) {
+			synchronized (SpillingRowStore.this) {
+				return idx < 0 ? null : charsets.get(idx);
+			}
+		}
+
+		private String readString() throws IOException {
+			byte[] b = readBytes();
+			return null == b ? null : new String(b, StandardCharsets.UTF_8);
+		}
+
+		private byte[] readBytes() throws IOException {
+			int len = in.readInt();
+			if (len < 0)
+				return null;
+			byte[] b = new byte[len];
+			in.readFully(b);
+			return b;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Merges the sorted runs of a table.
+	 */
+	public static class RowIterator implements Iterator<SqliteInternalRow>, Closeable {
+
+		private final List<Source> sources;
+		private final PriorityQueue<Source> queue;
+
+		RowIterator(List<Source> sources) throws IOException {
+			this.sources = sources;
+			this.queue = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+				int c = Long.compare(a.current.getOffset(), b.current.getOffset());
+				return c != 0 ? c : Integer.compare(a.order, b.order);
+			});
+			try {
+				for (Source s : sources) {
+					if (s.advance())
+						queue.add(s);
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public SqliteInternalRow next() {
+			Source s = queue.poll();
+			if (null == s)
+				throw new NoSuchElementException();
+			SqliteInternalRow row = s.current;
+			try {
+				if (s.advance())
+					queue.add(s);
+			} catch (EOFException e) {
+				throw new UncheckedIOException("truncated run file", e);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return row;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException first = null;
+			for (Source s : sources) {
+				try {
+					s.close();
+				} catch (IOException e) {
+					if (first == null)
+						first = e;
+				}
+			}
+			queue.clear();
+			if (first != null)
+				throw first;
+		}
+	}
+}
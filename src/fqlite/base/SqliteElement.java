@@ -3,6 +3,7 @@ package fqlite.base;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
 import fqlite.types.SerialTypes;
@@ -30,9 +31,104 @@ public class SqliteElement {
 		this.charset = charset;
 	}
 
+	/* the shared elements of the serial types 0 .. 11 (of the last charset) */
+	private static volatile SqliteElement[] fixedSizeTypes = createFixedSizeTypes(StandardCharsets.UTF_8);
+
+	private static SqliteElement[] createFixedSizeTypes(Charset charset) {
+		SqliteElement[] fixed = new SqliteElement[12];
+		for (int i = 0; i < fixed.length; i++) {
+			fixed[i] = createElement(i, charset);
+		}
+		return fixed;
+	}
+
+	/**
+	 * The elements of the serial types with a fixed size (0 .. 9) do not
+	 * depend on the record, so all records share them. They must not be
+	 * modified.
+	 * 
+	 * @param charset the database encoding
+	 * @return the elements indexed by the serial type, null for the reserved types 10 and 11
+	 */
+	public static SqliteElement[] fixedSizeTypes(Charset charset) {
+		SqliteElement[] fixed = fixedSizeTypes;
+		if (fixed[0].charset != charset) {
+			fixed = createFixedSizeTypes(charset);
+			fixedSizeTypes = fixed;
+		}
+		return fixed;
+	}
+
+	/**
+	 * Get the element of a serial type of a record header.
+	 * 
+	 * @param serialType the serial type
+	 * @param charset the database encoding
+	 * @return the element or null, if the serial type is not valid
+	 */
+	public static SqliteElement forSerialType(long serialType, Charset charset) {
+		if (serialType >= 0 && serialType < 12) {
+			return fixedSizeTypes(charset)[(int) serialType];
+		}
+		return createElement(serialType, charset);
+	}
+
+	private static SqliteElement createElement(long serialType, Charset charset) {
+		switch ((int) serialType) {
+		case 0: // primary key or null value <empty> cell
+			return new SqliteElement(SerialTypes.PRIMARY_KEY, StorageClasses.INT, 0, charset);
+		case 1: // 8bit complement integer
+			return new SqliteElement(SerialTypes.INT8, StorageClasses.INT, 1, charset);
+		case 2: // 16bit integer
+			return new SqliteElement(SerialTypes.INT16, StorageClasses.INT, 2, charset);
+		case 3: // 24bit integer
+			return new SqliteElement(SerialTypes.INT24, StorageClasses.INT, 3, charset);
+		case 4: // 32bit integer
+			return new SqliteElement(SerialTypes.INT32, StorageClasses.INT, 4, charset);
+		case 5: // 48bit integer
+			return new SqliteElement(SerialTypes.INT48, StorageClasses.INT, 6, charset);
+		case 6: // 64bit integer
+			return new SqliteElement(SerialTypes.INT64, StorageClasses.INT, 8, charset);
+		case 7: // Big-endian floating point number
+			return new SqliteElement(SerialTypes.FLOAT64, StorageClasses.FLOAT, 8, charset);
+		case 8: // Integer constant 0
+			return new SqliteElement(SerialTypes.INT0, StorageClasses.INT, 0, charset);
+		case 9: // Integer constant 1
+			return new SqliteElement(SerialTypes.INT1, StorageClasses.INT, 0, charset);
+		case 10: // not used
+		case 11:
+			return null;
+		default:
+			if (serialType % 2 == 0) // even
+			{
+				// BLOB with the length (N-12)/2
+				int len = (int) (serialType - 12) / 2;
+				if (len >= 0) {
+					return new SqliteElement(SerialTypes.BLOB, StorageClasses.BLOB, len, charset);
+				}
+			}
+			else // odd
+			{
+				// String in database encoding (N-13)/2
+				int len = (int) (serialType - 13) / 2;
+				if (len >= 0) {
+					return new SqliteElement(SerialTypes.STRING, StorageClasses.TEXT, len, charset);
+				}
+			}
+		}
+		return null;
+	}
+
 	public final String toString(byte[] value) {
+		return toString(value, 0, value.length);
+	}
+
+	/**
+	 * Convert the bytes <code>value[off] .. value[off + len - 1]</code> into a String.
+	 */
+	public final String toString(byte[] value, int off, int len) {
 
-	    if (value.length == 0 && type != SerialTypes.INT0 && type != SerialTypes.INT1) {
+	    if (len == 0 && type != SerialTypes.INT0 && type != SerialTypes.INT1) {
 	        return "";
 	    }
 
@@ -42,22 +138,22 @@ public class SqliteElement {
 	        case INT1:
 	            return "1";
 	        case STRING:
-	            return decodeString(value, charset).toString();
+	            return decodeString(value, off, len, charset).toString();
 	        case INT8:
-	            return String.valueOf(decodeInt8(value[0]));
+	            return String.valueOf(decodeInt8(value[off]));
 	        case INT16:
-	            return String.valueOf(decodeInt16(value));
+	            return String.valueOf(decodeInt16(value, off, len));
 	        case INT24:
-	            return String.valueOf(decodeInt24(value));
+	            return String.valueOf(decodeInt24(value, off, len));
 	        case INT32:
-	            return String.valueOf(decodeInt32(value));
+	            return String.valueOf(decodeInt32(value, off, len));
 	        case INT48:
 	        case INT64:
 	            long lValue;
 	            if (type == SerialTypes.INT48) {
-	                lValue = decodeInt48(value);
+	                lValue = decodeInt48(value, off, len);
 	            } else {
-	                lValue = decodeInt64(value);
+	                lValue = decodeInt64(value, off, len);
 	            }
 	            if (Global.CONVERT_DATETIME) {
 	                String strDateTime = DatetimeConverter.isUnixEpoch(lValue);
@@ -68,7 +164,7 @@ public class SqliteElement {
 	            }
 	            return String.valueOf(lValue);
 	        case FLOAT64:
-	            double dValue = decodeFloat64(value);
+	            double dValue = decodeFloat64(value, off, len);
 	            if (Global.CONVERT_DATETIME) {
 	                String strDateTime = DatetimeConverter.isMacAbsoluteTime(dValue);
 	                if (null != strDateTime) {
@@ -77,9 +173,9 @@ public class SqliteElement {
 	            }
 	            return String.format("%.8f", dValue);
 	        case BLOB:
-	            return String.valueOf(Auxiliary.bytesToHex(value));
+	            return String.valueOf(Auxiliary.bytesToHex(value, off, off + len));
 	        case PRIMARY_KEY:
-	            return String.valueOf(decodeInt64(value));
+	            return String.valueOf(decodeInt64(value, off, len));
             case NOTUSED1:
             case NOTUSED2:
 	    }
@@ -93,59 +189,69 @@ public class SqliteElement {
 	}
 
 	final static int decodeInt16(byte[] v) {
-	    if (v.length < 2)
+		return decodeInt16(v, 0, v.length);
+	}
+
+	final static int decodeInt16(byte[] v, int off, int len) {
+	    if (len < 2)
 	        return 0;
-		ByteBuffer bf = ByteBuffer.wrap(v);
-		return bf.getShort();
+		return (short) (((v[off] & 0xFF) << 8) | (v[off + 1] & 0xFF));
 	}
 
 	final static int decodeInt24(byte[] v) {
-		int result = int24bytesToUInt(v);
-		return result;
+		return decodeInt24(v, 0, v.length);
 	}
 
-	private static int int24bytesToUInt(byte[] input) {
-	    if (input.length == 0)
+	/* the unsigned value of the first (at most 3) bytes */
+	final static int decodeInt24(byte[] v, int off, int len) {
+	    if (len == 0)
 	        return 0;
-		if (input.length == 1)
-            return (0 & 0xFF << 24) | (0 & 0xFF) << 16 | (0 & 0xFF) << 8 | (input[0] & 0xFF) << 0;
-		if (input.length == 2)
-            return (0 & 0xFF << 24) | (0 & 0xFF) << 16 | (input[0] & 0xFF) << 8 | (input[1] & 0xFF) << 0;
+		if (len == 1)
+            return v[off] & 0xFF;
+		if (len == 2)
+            return (v[off] & 0xFF) << 8 | (v[off + 1] & 0xFF);
 
-		return (0 & 0xFF << 24) | (input[0] & 0xFF) << 16 | (input[1] & 0xFF) << 8 | (input[2] & 0xFF) << 0;
+		return (v[off] & 0xFF) << 16 | (v[off + 1] & 0xFF) << 8 | (v[off + 2] & 0xFF);
 	}
 
 	final static int decodeInt32(byte[] v) {
-	    if (v.length < 4) {
+		return decodeInt32(v, 0, v.length);
+	}
+
+	final static int decodeInt32(byte[] v, int off, int len) {
+	    if (len < 4) {
 	        return 0;
 	    }
-		ByteBuffer bf = ByteBuffer.wrap(v);
-		return bf.getInt();
+		return (v[off] & 0xFF) << 24 | (v[off + 1] & 0xFF) << 16 | (v[off + 2] & 0xFF) << 8 | (v[off + 3] & 0xFF);
 	}
 
 	final static long decodeInt48(byte[] v) {
+		return decodeInt48(v, 0, v.length);
+	}
+
+	final static long decodeInt48(byte[] v, int off, int len) {
 		// we have to read 6 Bytes
-		if (v.length < 6)
+		if (len < 6)
 			return 0;
-		ByteBuffer bf = ByteBuffer.wrap(v);
-		byte[] value = bf.array();
-		byte[] converted = new byte[8];
-
+		long result = 0;
 		for (int i = 0; i < 6; i++) {
-			converted[i + 2] = value[i];
+			result = (result << 8) | (v[off + i] & 0xFF);
 		}
-		ByteBuffer result = ByteBuffer.wrap(converted);
- 
-       // bf.order(ByteOrder.BIG_ENDIAN);
-			
-		return result.getLong();
+		return result;
 	}
 
 	final static long decodeInt64(byte[] v) {
-	    if (v.length < 8)
+		return decodeInt64(v, 0, v.length);
+	}
+
+	final static long decodeInt64(byte[] v, int off, int len) {
+	    if (len < 8)
 	        return 0;
-		ByteBuffer bf = ByteBuffer.wrap(v);
-		return bf.getLong();
+		long result = 0;
+		for (int i = 0; i < 8; i++) {
+			result = (result << 8) | (v[off + i] & 0xFF);
+		}
+		return result;
 	}
 
 	final static String convertToDate(long value) {
@@ -155,15 +261,21 @@ public class SqliteElement {
 	}
 
 	final static double decodeFloat64(byte[] v) {
-	    if (v.length < 8)
+		return decodeFloat64(v, 0, v.length);
+	}
+
+	final static double decodeFloat64(byte[] v, int off, int len) {
+	    if (len < 8)
 	        return Double.NaN;
-		ByteBuffer bf = ByteBuffer.wrap(v);
-		
-		return bf.getDouble();
+		return Double.longBitsToDouble(decodeInt64(v, off, len));
 	}
 
 	final static CharBuffer decodeString(byte[] v, Charset charset) {
-		return charset.decode(ByteBuffer.wrap(v));
+		return decodeString(v, 0, v.length, charset);
+	}
+
+	final static CharBuffer decodeString(byte[] v, int off, int len, Charset charset) {
+		return charset.decode(ByteBuffer.wrap(v, off, len));
 	}
 
 	private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
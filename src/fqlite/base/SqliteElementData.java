@@ -1,36 +1,128 @@
 package fqlite.base;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import fqlite.types.SerialTypes;
-import fqlite.types.StorageClasses;
+import fqlite.util.BufferUtil;
 import fqlite.util.DatetimeConverter;
 
+/**
+ * The value of one column of a recovered row.
+ * 
+ * A value read from a database page is not copied - it references the bytes
+ * of the page buffer (see <code>slice()</code>). Before the page buffer is
+ * recycled by the worker thread, the value gets its own copy of the bytes
+ * (see <code>BufferUtil.releasePageBuffer()</code>). Values that are handed
+ * over to another thread have to be detached first.
+ */
 public class SqliteElementData {
+    
+    /* a column that was not decoded, see Job.setColumnProjection() */
+    public static final SqliteElementData SKIPPED = new SqliteElementData((String) null, StandardCharsets.UTF_8);
+    
     private SqliteElement column;
+    /* the value consists of the bytes data[offset] .. data[offset + length - 1] */
     private byte[] data;
+    private int offset;
+    private int length;
+    /* true, as long as data is a page buffer of the worker thread */
+    private boolean shared;
     private Charset charset = StandardCharsets.UTF_8;
     
     public SqliteElementData(SqliteElement column, byte[] data) {
         this.column = column;
         this.data = data;
+        this.length = null == data ? 0 : data.length;
+        this.charset = column.charset;
+    }
+    
+    private SqliteElementData(SqliteElement column, byte[] data, int offset, int length) {
+        this.column = column;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
         this.charset = column.charset;
     }
     
+    /**
+     * Create a value that references the next <code>length</code> bytes of
+     * the buffer. The position of the buffer is moved behind the value.
+     * 
+     * @param column the column type
+     * @param buffer the buffer to read from
+     * @param length number of bytes of the value
+     * @param pageBuffer true, if the buffer is a page buffer that is given
+     *                   back with <code>BufferUtil.releasePageBuffer()</code>
+     * @return the value
+     * @throws BufferUnderflowException if there are less than <code>length</code> bytes left
+     */
+    public static SqliteElementData slice(SqliteElement column, ByteBuffer buffer, int length, boolean pageBuffer) {
+        if (buffer.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        if (!buffer.hasArray()) {
+            byte[] value = new byte[length];
+            buffer.get(value);
+            return new SqliteElementData(column, value);
+        }
+        SqliteElementData d = new SqliteElementData(column, buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        if (pageBuffer) {
+            d.shared = true;
+            BufferUtil.share(d);
+        }
+        return d;
+    }
+    
+    /**
+     * Create the value of a column without content bytes (NULL, the
+     * constants 0 and 1, an empty TEXT or BLOB). The constant 0 is stored as
+     * a number. The other values have no data and print as NULL, but the
+     * constant 1 and the empty TEXT and BLOB keep their column, so their
+     * serial type is still known (see <code>getType()</code>).
+     * 
+     * @param column the column type, its length is 0
+     * @param charset the database encoding
+     * @return the value
+     */
+    public static SqliteElementData empty(SqliteElement column, Charset charset) {
+        if (column.type == SerialTypes.INT0) {
+            return new SqliteElementData(column, 0);
+        }
+        SqliteElementData d = new SqliteElementData((String) null, charset);
+        if (column.type != SerialTypes.PRIMARY_KEY) {
+            d.column = column;
+        }
+        return d;
+    }
+    
+    /* restore a value written by SpillingRowStore */
+    SqliteElementData(SqliteElement column, byte[] data, Charset charset) {
+        this.column = column;
+        this.data = data;
+        this.length = null == data ? 0 : data.length;
+        this.charset = charset;
+    }
+    
     public SqliteElementData(String data, Charset charset) {
         this.column = null;
         if (null == data) {
             this.data = null;
         } else {
             this.data = data.getBytes();
+            this.length = this.data.length;
         }
         this.charset = charset;
     }
     
     public SqliteElementData(long data, Charset charset) {
-        this(new SqliteElement(SerialTypes.INT64, StorageClasses.INT, 8, charset), data);
+        this(SqliteElement.forSerialType(6, charset), data);
     }
     
     public SqliteElementData(SqliteElement column, long data) {
@@ -38,75 +130,159 @@ public class SqliteElementData {
         ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
         buffer.putLong(data);
         this.data = buffer.array();
+        this.length = Long.BYTES;
         this.charset = column.charset;
     }
     
     public SqliteElementData(double data, Charset charset) {
-        this.column = new SqliteElement(SerialTypes.FLOAT64, StorageClasses.FLOAT, 8, charset);
+        this.column = SqliteElement.forSerialType(7, charset);
         ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES);
         buffer.putDouble(data);
         this.data = buffer.array();
+        this.length = Double.BYTES;
         this.charset = charset;
     }
     
+    /**
+     * Give the value its own copy of the bytes, if it still references a page
+     * buffer. Has to be called before the value is handed over to another
+     * thread.
+     */
+    public void detach() {
+        if (shared) {
+            data = Arrays.copyOfRange(data, offset, offset + length);
+            offset = 0;
+            shared = false;
+        }
+    }
+    
+    /**
+     * Called by BufferUtil, before the page buffer is recycled.
+     * 
+     * @param page the page buffer that is given back
+     * @return true, if the value does not reference a page buffer any longer
+     */
+    public boolean detach(byte[] page) {
+        if (shared && data == page) {
+            detach();
+        }
+        return !shared;
+    }
+    
+    /**
+     * @return true, if the value is NULL
+     */
+    public boolean isNull() {
+        return null == data;
+    }
+    
+    /**
+     * @return number of bytes of the value
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    /**
+     * Write the bytes of the value without materializing them.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (null != data) {
+            out.write(data, offset, length);
+        }
+    }
+    
+    SqliteElement getColumn() {
+        return column;
+    }
+    
+    /**
+     * @return the serial type of the value or null, if the value is plain text
+     */
+    public SerialTypes getType() {
+        return null == column ? null : column.type;
+    }
+    
+    /**
+     * @return the charset of a text value
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+    
     public String toString() {
+        if (null == data) {
+            return "NULL";
+        }
         if (null == column) {
-            if (null == data) {
-                return "NULL";
-            }
-            return SqliteElement.decodeString(data, charset).toString();
+            return SqliteElement.decodeString(data, offset, length, charset).toString();
         }
-        return column.toString(data);
+        return column.toString(data, offset, length);
     }
     
     public long getIntValue() {
+        if (null == column) {
+            return 0L;
+        }
         switch (column.type) {
             case INT0:
                 return 0L;
             case INT1:
                 return 1L;
             case INT8:
-                return SqliteElement.decodeInt8(data[0]);
+                return SqliteElement.decodeInt8(data[offset]);
             case INT16:
-                return SqliteElement.decodeInt16(data);
+                return SqliteElement.decodeInt16(data, offset, length);
             case INT24:
-                return SqliteElement.decodeInt24(data);
+                return SqliteElement.decodeInt24(data, offset, length);
             case INT32:
-                return SqliteElement.decodeInt32(data);
+                return SqliteElement.decodeInt32(data, offset, length);
             case INT48:
-                return SqliteElement.decodeInt48(data);
+                return SqliteElement.decodeInt48(data, offset, length);
             case INT64:
             case PRIMARY_KEY:
-                return SqliteElement.decodeInt64(data);
+                return SqliteElement.decodeInt64(data, offset, length);
             default:
         }
         return 0L;
     }
     
     public String getTextValue() {
-        if (column == null) {
+        if (column == null || data == null) {
             if (data != null) {
-                return SqliteElement.decodeString(data, charset).toString();
+                return SqliteElement.decodeString(data, offset, length, charset).toString();
             } else {
                 return "";
             }
         }
         switch (column.type) {
             case STRING:
-                return SqliteElement.decodeString(data, charset).toString();
+                return SqliteElement.decodeString(data, offset, length, charset).toString();
             default:
         }
         return null;
     }
     
+    /**
+     * @return the bytes of the value, a value that references a page buffer
+     *         is materialized by this call
+     */
     public byte[] getBlobValue() {
+        if (null == data) {
+            return null;
+        }
+        if (shared || offset != 0 || length != data.length) {
+            data = Arrays.copyOfRange(data, offset, offset + length);
+            offset = 0;
+            shared = false;
+        }
         return data;
     }
     
     public double getFloatValue() {
         switch (column.type) {
             case FLOAT64:
-                return SqliteElement.decodeFloat64(data);
+                return SqliteElement.decodeFloat64(data, offset, length);
             default:
         }
         return 0.0;
@@ -116,7 +292,7 @@ public class SqliteElementData {
         if (data == null) {
             return null;
         }
-        if (data.length == 0 && column.type != SerialTypes.INT0 && column.type != SerialTypes.INT1) {
+        if (length == 0 && column.type != SerialTypes.INT0 && column.type != SerialTypes.INT1) {
             return null;
         }
 
@@ -126,22 +302,22 @@ public class SqliteElementData {
             case INT1:
                 return 1;
             case STRING:
-                return SqliteElement.decodeString(data, charset).toString();
+                return SqliteElement.decodeString(data, offset, length, charset).toString();
             case INT8:
-                return SqliteElement.decodeInt8(data[0]);
+                return SqliteElement.decodeInt8(data[offset]);
             case INT16:
-                return SqliteElement.decodeInt16(data);
+                return SqliteElement.decodeInt16(data, offset, length);
             case INT24:
-                return SqliteElement.decodeInt24(data);
+                return SqliteElement.decodeInt24(data, offset, length);
             case INT32:
-                return SqliteElement.decodeInt32(data);
+                return SqliteElement.decodeInt32(data, offset, length);
             case INT48:
             case INT64:
                 long lValue;
                 if (column.type == SerialTypes.INT48) {
-                    lValue = SqliteElement.decodeInt48(data);
+                    lValue = SqliteElement.decodeInt48(data, offset, length);
                 } else {
-                    lValue = SqliteElement.decodeInt64(data);
+                    lValue = SqliteElement.decodeInt64(data, offset, length);
                 }
                 if (Global.CONVERT_DATETIME) {
                     String strDateTime = DatetimeConverter.isUnixEpoch(lValue);
@@ -152,7 +328,7 @@ public class SqliteElementData {
                 }
                 return lValue;
             case FLOAT64:
-                double dValue = SqliteElement.decodeFloat64(data);
+                double dValue = SqliteElement.decodeFloat64(data, offset, length);
                 if (Global.CONVERT_DATETIME) {
                     String strDateTime = DatetimeConverter.isMacAbsoluteTime(dValue);
                     if (null != strDateTime) {
@@ -161,9 +337,9 @@ public class SqliteElementData {
                 }
                 return dValue;
             case BLOB:
-                return data;
+                return getBlobValue();
             case PRIMARY_KEY:
-                return SqliteElement.decodeInt64(data);
+                return SqliteElement.decodeInt64(data, offset, length);
             case NOTUSED1:
             case NOTUSED2:
         }
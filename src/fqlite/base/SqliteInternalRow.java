@@ -2,22 +2,31 @@ package fqlite.base;
 
 import java.nio.BufferUnderflowException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import fqlite.util.Auxiliary;
+
 public class SqliteInternalRow {
     private List<SqliteElementData> rowData = new ArrayList<>();
     private long offset = 0L;
     private String tableName = "";
     private String recordType = "";
     private String lineSuffix = "";
+    /* the record header, the line suffix is created from it when it is needed */
+    private byte[] header = null;
     private Map<String, Integer> colIdx = null;
 
     void setColumnNamesMap(Map<String, Integer> colIdx) {
         this.colIdx = colIdx;
     }
 
+    Map<String, Integer> getColumnNamesMap() {
+        return colIdx;
+    }
+
     public Set<String> getColumnNames() {
         if (colIdx != null) {
             return colIdx.keySet();
@@ -38,6 +47,17 @@ public class SqliteInternalRow {
         rowData.add(elementData);
     }
     
+    /**
+     * Copy all values that still reference a page buffer.
+     */
+    public void detach() {
+        for (SqliteElementData d : rowData) {
+            if (d != null) {
+                d.detach();
+            }
+        }
+    }
+    
     public List<SqliteElementData> getRowData() {
         return rowData;
     }
@@ -67,11 +87,28 @@ public class SqliteInternalRow {
     }
     
     public String getLineSuffix() {
+        if (null == lineSuffix) {
+            lineSuffix = "##header##" + Auxiliary.bytesToHex(header);
+        }
         return lineSuffix;
     }
     
     public void setLineSuffix(String lineSuffix) {
         this.lineSuffix = lineSuffix;
+        this.header = null;
+    }
+    
+    /**
+     * Set the line suffix to the hex string of the record header. The string
+     * is created on the first call of <code>getLineSuffix()</code>.
+     * 
+     * @param header array with the header bytes
+     * @param off first header byte
+     * @param len number of header bytes
+     */
+    public void setHeader(byte[] header, int off, int len) {
+        this.header = Arrays.copyOfRange(header, off, off + len);
+        this.lineSuffix = null;
     }
     
     public String toString() {
@@ -83,7 +120,7 @@ public class SqliteInternalRow {
         for (SqliteElementData elementData : rowData) {
             builder.append(";").append(elementData.toString());
         }
-        builder.append(lineSuffix);
+        builder.append(getLineSuffix());
         builder.append("\n");
         
         return builder.toString();
@@ -0,0 +1,243 @@
+package fqlite.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fqlite.descriptor.TableDescriptor;
+import fqlite.types.StorageClasses;
+
+/**
+ * Assigns records that are not part of a b-tree (e.g. on free pages) to a
+ * table.
+ *
+ * A record belongs to a table, if the storage classes of its columns are
+ * exactly the column types of the table. The storage classes of each table
+ * are packed into a long key (two bits per column plus the number of
+ * columns in the bits 58 to 62), so a lookup is a single hash access instead of comparing the
+ * type names of every table. If several tables have the same signature, the
+ * first table of the schema wins, just like before.
+ *
+ * The index does not change after it has been created and can be used by
+ * all worker threads.
+ */
+public class TableSignatureIndex {
+
+	/* columns that fit into the key without hashing */
+	private static final int PACKED_COLUMNS = 29;
+
+	/* the number of columns in the key, larger counts share the last value */
+	private static final int MAX_KEY_COLUMNS = 31;
+
+	private static final int COUNT_SHIFT = 58;
+
+	private static final StorageClasses[] STORAGE_CLASSES = StorageClasses.values();
+
+	/* tables with the same key, in schema order */
+	private final Map<Long, Entry[]> tables = new HashMap<>();
+
+	/* all tables with a valid signature by the number of columns, in schema order */
+	private final Map<Integer, List<Entry>> byColumns = new HashMap<>();
+
+	/* number of tables the index was created from */
+	private final int size;
+
+	private static final class Entry {
+		final TableDescriptor table;
+		final byte[] signature;
+
+		Entry(TableDescriptor table, byte[] signature) {
+			this.table = table;
+			this.signature = signature;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tables the tables of the schema in schema order
+	 */
+	public TableSignatureIndex(Collection<TableDescriptor> tables) {
+		this.size = tables.size();
+		for (TableDescriptor td : tables) {
+			byte[] signature = signature(td.getColumntypes());
+			if (null == signature) {
+				/* a column type that is not a storage class never matches */
+				continue;
+			}
+			Entry e = new Entry(td, signature);
+			Long key = key(signature);
+			Entry[] same = this.tables.get(key);
+			if (null == same) {
+				same = new Entry[] { e };
+			} else {
+				same = Arrays.copyOf(same, same.length + 1);
+				same[same.length - 1] = e;
+			}
+			this.tables.put(key, same);
+			byColumns.computeIfAbsent(signature.length, k -> new ArrayList<>()).add(e);
+		}
+	}
+
+	/**
+	 * @return the number of tables the index was created from
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static byte[] signature(List<String> columntypes) {
+		if (null == columntypes) {
+			return null;
+		}
+		byte[] signature = new byte[columntypes.size()];
+		int i = 0;
+		for (String type : columntypes) {
+			int code = -1;
+			for (StorageClasses s : STORAGE_CLASSES) {
+				if (s.name().equals(type)) {
+					code = s.ordinal();
+					break;
+				}
+			}
+			if (code < 0) {
+				return null;
+			}
+			signature[i++] = (byte) code;
+		}
+		return signature;
+	}
+
+	/**
+	 * The key of a signature. Up to 29 columns the storage classes are
+	 * packed without loss, longer signatures are hashed.
+	 */
+	private static long key(byte[] signature) {
+		long key = 0;
+		if (signature.length <= PACKED_COLUMNS) {
+			for (byte code : signature) {
+				key = (key << 2) | code;
+			}
+		} else {
+			for (byte code : signature) {
+				key = key * 31 + code;
+			}
+			key &= (1L << COUNT_SHIFT) - 1;
+		}
+		return withCount(key, signature.length);
+	}
+
+	/**
+	 * The key of the storage classes of a record header.
+	 *
+	 * @return the key or null, if a column has an invalid serial type
+	 */
+	private static Long key(SqliteElement[] header) {
+		long key = 0;
+		if (header.length <= PACKED_COLUMNS) {
+			for (SqliteElement s : header) {
+				if (null == s) {
+					return null;
+				}
+				key = (key << 2) | s.serial.ordinal();
+			}
+		} else {
+			for (SqliteElement s : header) {
+				if (null == s) {
+					return null;
+				}
+				key = key * 31 + s.serial.ordinal();
+			}
+			key &= (1L << COUNT_SHIFT) - 1;
+		}
+		return withCount(key, header.length);
+	}
+
+	/**
+	 * Add the number of columns to a key. The count never reaches the sign
+	 * bit; signatures with more columns than fit into the count are hashed
+	 * and told apart by comparing the signatures.
+	 */
+	private static long withCount(long key, int columns) {
+		return ((long) Math.min(columns, MAX_KEY_COLUMNS) << COUNT_SHIFT) | key;
+	}
+
+	private static boolean matches(byte[] signature, SqliteElement[] header) {
+		if (signature.length != header.length) {
+			return false;
+		}
+		for (int i = 0; i < signature.length; i++) {
+			if (signature[i] != header[i].serial.ordinal()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the table of a record.
+	 *
+	 * @param header the columns of the record header
+	 * @return the first table of the schema with the same storage classes or null
+	 */
+	public TableDescriptor match(SqliteElement[] header) {
+		Long key = key(header);
+		if (null == key) {
+			return null;
+		}
+		Entry[] same = tables.get(key);
+		if (null == same) {
+			return null;
+		}
+		for (Entry e : same) {
+			/* only hashed keys can collide */
+			if (header.length <= PACKED_COLUMNS || matches(e.signature, header)) {
+				return e.table;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the tables a record could belong to, if there is no exact match.
+	 * The tables with the same number of columns are ranked by the number
+	 * of columns whose storage class matches.
+	 *
+	 * @param header the columns of the record header
+	 * @param max maximum number of tables
+	 * @return the best candidates first, tables of equal rank in schema order
+	 */
+	public List<TableDescriptor> candidates(SqliteElement[] header, int max) {
+		List<Entry> entries = byColumns.get(header.length);
+		if (null == entries || max <= 0) {
+			return new ArrayList<>();
+		}
+		int[] score = new int[entries.size()];
+		Integer[] order = new Integer[entries.size()];
+		for (int i = 0; i < score.length; i++) {
+			byte[] signature = entries.get(i).signature;
+			for (int c = 0; c < signature.length; c++) {
+				if (null != header[c] && signature[c] == header[c].serial.ordinal()) {
+					score[i]++;
+				}
+			}
+			order[i] = i;
+		}
+		/* stable sort keeps the schema order of equal scores */
+		Arrays.sort(order, (a, b) -> Integer.compare(score[b], score[a]));
+
+		List<TableDescriptor> result = new ArrayList<>();
+		for (int i = 0; i < order.length && result.size() < max; i++) {
+			result.add(entries.get(order[i]).table);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "TableSignatureIndex [tables=" + size + ", signatures=" + tables.size() + "]";
+	}
+}
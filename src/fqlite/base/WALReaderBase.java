@@ -16,7 +16,8 @@ import fqlite.descriptor.TableDescriptor;
 import fqlite.pattern.SerialTypeMatcher;
 import fqlite.types.CarverTypes;
 import fqlite.util.Auxiliary;
-import fqlite.util.RandomAccessFileReader;
+import fqlite.util.BufferUtil;
+import fqlite.util.LongPositionByteBuffer;
 
 /**
  * The class analyzes a WAL-file and writes the found records into a file.
@@ -49,7 +50,7 @@ public abstract class WALReaderBase extends Base {
 	TreeMap<Long,LinkedList<WALFrame>> checkpoints = new TreeMap<Long,LinkedList<WALFrame>>();
 
 	/* An channel for reading, writing, and manipulating a file. */
-	public RandomAccessFileReader file;
+	public LongPositionByteBuffer file;
 
 	/* total size of WAL-file in bytes */
 	long size;
@@ -98,7 +99,7 @@ public abstract class WALReaderBase extends Base {
 	private Auxiliary ct;
 
 	/* knowledge store */
-	private StringBuffer firstcol = new StringBuffer();
+	private FirstColumnType firstcol = new FirstColumnType();
 
 	private static final String MAGIC_HEADER_STRING1 = "377f0682";
 	private static final String MAGIC_HEADER_STRING2 = "377f0683";
@@ -144,7 +145,7 @@ public abstract class WALReaderBase extends Base {
 
 		/* try to open the db-file in read-only mode */
 		try {
-			file = new RandomAccessFileReader(p);
+			file = job.openFile(p);
 		} catch (Exception e) {
             err("Cannot open WAL-file", p.getFileName());
 			return;
@@ -291,10 +292,18 @@ public abstract class WALReaderBase extends Base {
 		
 		framestart = 32; // this is the position, where the first frame should be
 
+		job.beginProgress(RecoveryPhase.WAL, (file.size() - 32) / (ps + 24));
+
 		boolean next = false;
 		int numberofpages = 0;
 		do
 		{
+			/* stop here, if the job was cancelled */
+			if (job.isCancelled()) {
+				info("WAL analysis cancelled.");
+				break;
+			}
+			
 			/* 24 Byte - with six 4-Byte big endian values */
 			ByteBuffer fheader = file.allocateAndReadBuffer(framestart, 24);
 	
@@ -348,6 +357,11 @@ public abstract class WALReaderBase extends Base {
 			
 			
 			analyzePage(frame);
+			
+			/* the page has been analyzed, recycle the buffer for the next frame */
+			BufferUtil.releasePageBuffer(buffer.array());
+			buffer = null;
+			job.advanceProgress(RecoveryPhase.WAL);
 
 
 			
@@ -761,7 +775,15 @@ public abstract class WALReaderBase extends Base {
 	 * @throws IOException if an error occurs
 	 */
 	protected ByteBuffer readPage() throws IOException {
-		return file.allocateAndReadBuffer(ps);
+		byte[] page = BufferUtil.acquirePageBuffer(ps);
+		ByteBuffer bf = ByteBuffer.wrap(page);
+		/* the page follows immediately after the 24 byte frame header */
+		if (file.readAt(framestart + 24, bf) < page.length) {
+			BufferUtil.releasePageBuffer(page);
+			return null;
+		}
+		bf.clear();
+		return bf;
 	}
 
 	/**
@@ -810,6 +832,9 @@ public abstract class WALReaderBase extends Base {
 			return;
 		}
 
+		/* create matcher object for constrain check, one for all tables of the page */
+		SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
+
 		/* try out all component schema(s) */
 		for (int n = 0; n < tab.size(); n++) {
 			tdesc = tab.get(n);
@@ -822,9 +847,6 @@ public abstract class WALReaderBase extends Base {
 			debug("WALReader 713 Check component : ", tablename);
 			if (tablename.startsWith("__UNASSIGNED"))
 				continue;
-			/* create matcher object for constrain check */
-			SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
-
 			gaps = findGaps();
 
 			for (int a = 0; a < gaps.size(); a++) {
@@ -1010,6 +1032,9 @@ public abstract class WALReaderBase extends Base {
 			return;
 		}
 
+		/* create matcher object for constrain check, one for all tables of the page */
+		SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
+
 		/* try out all component schema(s) */
 		for (int n = 0; n < tab.size(); n++) {
 			tdesc = tab.get(n);
@@ -1022,9 +1047,6 @@ public abstract class WALReaderBase extends Base {
 			debug("Check component : ", tablename);
 			if (tablename.startsWith("__UNASSIGNED"))
 				continue;
-			/* create matcher object for constrain check */
-			SerialTypeMatcher stm = new SerialTypeMatcher(buffer);
-
 			gaps = findGaps();
 
 			for (int a = 0; a < gaps.size(); a++) {
@@ -0,0 +1,348 @@
+package fqlite.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes table b-trees into a new SQLite database file.
+ *
+ * The trees are built bottom up in bulk-load order: the records are appended
+ * to the current leaf page, a full leaf is written at once and the interior
+ * pages are created after the last leaf. Every page is written exactly once,
+ * so apart from page 1 (which is reserved for the database header and the
+ * schema table and written at the very end) the file is written sequentially.
+ *
+ * The layout of the pages follows https://www.sqlite.org/fileformat2.html.
+ */
+class BTreeWriter {
+
+	/* page 1 starts with the 100 byte database header */
+	static final int HEADER_SIZE = 100;
+
+	private static final byte LEAF_TABLE = 0x0D;
+	private static final byte INTERIOR_TABLE = 0x05;
+
+	private final FileChannel channel;
+	private final int pageSize;
+	private final ByteBuffer out;
+
+	/* page 1 is reserved */
+	private int nextPage = 2;
+
+	BTreeWriter(FileChannel channel, int pageSize) {
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.out = ByteBuffer.allocateDirect(pageSize);
+	}
+
+	/**
+	 * @return number of pages in the database
+	 */
+	int getPageCount() {
+		return nextPage - 1;
+	}
+
+	int getPageSize() {
+		return pageSize;
+	}
+
+	private int allocate() {
+		return nextPage++;
+	}
+
+	void writePage(int pageNo, byte[] page) throws IOException {
+		out.clear();
+		out.put(page, 0, pageSize);
+		out.flip();
+		long pos = (long) (pageNo - 1) * pageSize;
+		while (out.hasRemaining()) {
+			pos += channel.write(out, pos);
+		}
+	}
+
+	/**
+	 * Start a new table b-tree.
+	 *
+	 * @param pageOne true for the schema table, whose root has to be page 1
+	 */
+	Tree newTree(boolean pageOne) {
+		return new Tree(pageOne);
+	}
+
+	/**
+	 * Write a SQLite varint.
+	 *
+	 * @return the number of bytes written
+	 */
+	static int putVarint(byte[] p, int off, long v) {
+		if ((v & ~0x7FL) == 0) {
+			p[off] = (byte) v;
+			return 1;
+		}
+		if ((v & 0xFF00000000000000L) != 0) {
+			p[off + 8] = (byte) v;
+			v >>>= 8;
+			for (int i = 7; i >= 0; i--) {
+				p[off + i] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			return 9;
+		}
+		int n = varintLength(v);
+		for (int i = n - 1; i >= 0; i--) {
+			p[off + i] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		p[off + n - 1] &= 0x7F;
+		return n;
+	}
+
+	static int varintLength(long v) {
+		if ((v & 0xFF00000000000000L) != 0) {
+			return 9;
+		}
+		int n = 1;
+		while ((v >>>= 7) != 0) {
+			n++;
+		}
+		return n;
+	}
+
+	static void putInt(byte[] p, int off, int v) {
+		p[off] = (byte) (v >>> 24);
+		p[off + 1] = (byte) (v >>> 16);
+		p[off + 2] = (byte) (v >>> 8);
+		p[off + 3] = (byte) v;
+	}
+
+	static void putShort(byte[] p, int off, int v) {
+		p[off] = (byte) (v >>> 8);
+		p[off + 1] = (byte) v;
+	}
+
+	/**
+	 * One table b-tree. The rowids are assigned in ascending order, starting
+	 * with 1.
+	 */
+	class Tree {
+
+		private final boolean pageOne;
+		/* space at the start of a page that is not available for the b-tree */
+		private final int reserved;
+
+		/* the current leaf: cell content grows from the end of the page */
+		private final byte[] leaf = new byte[pageSize];
+		private int[] pointers = new int[64];
+		private int cells = 0;
+		private int contentStart = pageSize;
+
+		/* the pages of the level below the next interior level */
+		private int[] childPages = new int[64];
+		private long[] childKeys = new long[64];
+		private int children = 0;
+
+		private long rowid = 0;
+		private byte[] cell = new byte[pageSize];
+
+		Tree(boolean pageOne) {
+			this.pageOne = pageOne;
+			this.reserved = pageOne ? HEADER_SIZE : 0;
+		}
+
+		/**
+		 * Append a record as the next row.
+		 *
+		 * @param record the record (header and body)
+		 * @param length length of the record
+		 * @return the rowid of the new row
+		 */
+		long add(byte[] record, int length) throws IOException {
+			rowid++;
+
+			/* the largest payload that is stored on the leaf page itself */
+			int usable = pageSize;
+			int maxLocal = usable - 35;
+			int minLocal = ((usable - 12) * 32 / 255) - 23;
+			int local = length;
+			if (length > maxLocal) {
+				local = minLocal + ((length - minLocal) % (usable - 4));
+				if (local > maxLocal) {
+					local = minLocal;
+				}
+			}
+
+			int size = varintLength(length) + varintLength(rowid) + local + (local < length ? 4 : 0);
+			if (cell.length < size) {
+				cell = new byte[size];
+			}
+			int pos = putVarint(cell, 0, length);
+			pos += putVarint(cell, pos, rowid);
+			System.arraycopy(record, 0, cell, pos, local);
+			pos += local;
+			if (local < length) {
+				putInt(cell, pos, writeOverflow(record, local, length));
+			}
+
+			if (reserved + 8 + 2 * (cells + 1) > contentStart - size && cells > 0) {
+				flushLeaf();
+			}
+			contentStart -= size;
+			System.arraycopy(cell, 0, leaf, contentStart, size);
+			if (cells == pointers.length) {
+				pointers = Arrays.copyOf(pointers, cells * 2);
+			}
+			pointers[cells++] = contentStart;
+			return rowid;
+		}
+
+		/**
+		 * Write the part of the payload that does not fit on the leaf.
+		 *
+		 * @return the first overflow page
+		 */
+		private int writeOverflow(byte[] record, int from, int length) throws IOException {
+			int perPage = pageSize - 4;
+			int count = (length - from + perPage - 1) / perPage;
+			int first = nextPage;
+			byte[] page = new byte[pageSize];
+			for (int i = 0; i < count; i++) {
+				Arrays.fill(page, (byte) 0);
+				int pageNo = allocate();
+				int n = Math.min(perPage, length - from);
+				putInt(page, 0, i + 1 < count ? pageNo + 1 : 0);
+				System.arraycopy(record, from, page, 4, n);
+				from += n;
+				writePage(pageNo, page);
+			}
+			return first;
+		}
+
+		private void writeLeaf(int pageNo, int headerOffset) throws IOException {
+			leaf[headerOffset] = LEAF_TABLE;
+			putShort(leaf, headerOffset + 1, 0);
+			putShort(leaf, headerOffset + 3, cells);
+			putShort(leaf, headerOffset + 5, contentStart == 65536 ? 0 : contentStart);
+			leaf[headerOffset + 7] = 0;
+			for (int i = 0; i < cells; i++) {
+				putShort(leaf, headerOffset + 8 + 2 * i, pointers[i]);
+			}
+			writePage(pageNo, leaf);
+		}
+
+		private void flushLeaf() throws IOException {
+			int pageNo = allocate();
+			writeLeaf(pageNo, 0);
+			addChild(pageNo, rowid - 1);
+			Arrays.fill(leaf, (byte) 0);
+			cells = 0;
+			contentStart = pageSize;
+		}
+
+		private void addChild(int pageNo, long key) {
+			if (children == childPages.length) {
+				childPages = Arrays.copyOf(childPages, children * 2);
+				childKeys = Arrays.copyOf(childKeys, children * 2);
+			}
+			childPages[children] = pageNo;
+			childKeys[children] = key;
+			children++;
+		}
+
+		/**
+		 * Write the remaining pages.
+		 *
+		 * @return the root page of the tree
+		 */
+		int finish() throws IOException {
+			if (children == 0 && reserved + 8 + 2 * cells <= contentStart) {
+				/* the whole tree fits on one leaf, which is the root */
+				int root = pageOne ? 1 : allocate();
+				writeLeaf(root, reserved);
+				return root;
+			}
+			if (cells > 0) {
+				int pageNo = allocate();
+				writeLeaf(pageNo, 0);
+				addChild(pageNo, rowid);
+			}
+
+			int[] pages = Arrays.copyOf(childPages, children);
+			long[] keys = Arrays.copyOf(childKeys, children);
+			while (true) {
+				List<int[]> groups = group(keys);
+				boolean root = groups.size() == 1;
+				int[] nextPages = new int[groups.size()];
+				long[] nextKeys = new long[groups.size()];
+				for (int g = 0; g < groups.size(); g++) {
+					int from = groups.get(g)[0];
+					int to = groups.get(g)[1];
+					int pageNo = root && pageOne ? 1 : allocate();
+					writeInterior(pageNo, root ? reserved : 0, pages, keys, from, to);
+					nextPages[g] = pageNo;
+					nextKeys[g] = keys[to - 1];
+				}
+				if (root) {
+					return nextPages[0];
+				}
+				pages = nextPages;
+				keys = nextKeys;
+			}
+		}
+
+		/**
+		 * Split the children of one level into the ranges of the interior
+		 * pages of the next level. The last child of each range becomes the
+		 * right-most pointer, all others get a cell.
+		 */
+		private List<int[]> group(long[] keys) {
+			List<int[]> groups = new ArrayList<>();
+			int n = keys.length;
+			int from = 0;
+			int used = reserved + 12;
+			for (int i = from + 1; i < n; i++) {
+				/* child i-1 gets a cell, child i is the right pointer */
+				int size = 2 + 4 + varintLength(keys[i - 1]);
+				if (used + size > pageSize) {
+					groups.add(new int[] { from, i });
+					from = i;
+					used = reserved + 12;
+				} else {
+					used += size;
+				}
+			}
+			groups.add(new int[] { from, n });
+
+			/* every interior page needs at least one cell */
+			int last = groups.size() - 1;
+			if (last > 0 && groups.get(last)[1] - groups.get(last)[0] == 1) {
+				groups.get(last - 1)[1]--;
+				groups.get(last)[0]--;
+			}
+			return groups;
+		}
+
+		private void writeInterior(int pageNo, int headerOffset, int[] pages, long[] keys, int from, int to) throws IOException {
+			byte[] page = new byte[pageSize];
+			int count = to - from - 1;
+			int content = pageSize;
+			for (int i = 0; i < count; i++) {
+				int size = 4 + varintLength(keys[from + i]);
+				content -= size;
+				putInt(page, content, pages[from + i]);
+				putVarint(page, content + 4, keys[from + i]);
+				putShort(page, headerOffset + 12 + 2 * i, content);
+			}
+			page[headerOffset] = INTERIOR_TABLE;
+			putShort(page, headerOffset + 1, 0);
+			putShort(page, headerOffset + 3, count);
+			putShort(page, headerOffset + 5, content == 65536 ? 0 : content);
+			page[headerOffset + 7] = 0;
+			putInt(page, headerOffset + 8, pages[to - 1]);
+			writePage(pageNo, page);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package fqlite.export;
+
+/**
+ * Output formats of the TableExporter.
+ */
+public enum ExportFormat {
+
+	/* one line per row, values separated by semicolons, with a header line */
+	CSV("csv"),
+
+	/* one JSON object per line (JSON Lines) */
+	JSONL("jsonl"),
+
+	/* all tables in one SQLite database (see SqliteDatabaseWriter) */
+	SQLITE("sqlite");
+
+	private final String extension;
+
+	ExportFormat(String extension) {
+		this.extension = extension;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+}
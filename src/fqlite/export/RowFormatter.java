@@ -0,0 +1,278 @@
+package fqlite.export;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import fqlite.base.Global;
+import fqlite.base.SqliteElementData;
+import fqlite.base.SqliteInternalRow;
+import fqlite.types.SerialTypes;
+import fqlite.util.DatetimeConverter;
+
+/**
+ * Converts rows into CSV or JSON lines.
+ *
+ * Every worker thread has its own formatter. The StringBuilder, the encoder
+ * and the output buffer are reused for all rows, so formatting a row does not
+ * allocate more than the decoded strings.
+ */
+class RowFormatter {
+
+	/* two hex digits for every byte value */
+	private static final char[] HEX = new char[512];
+
+	static {
+		char[] digits = "0123456789ABCDEF".toCharArray();
+		for (int i = 0; i < 256; i++) {
+			HEX[i * 2] = digits[i >>> 4];
+			HEX[i * 2 + 1] = digits[i & 0x0F];
+		}
+	}
+
+	private final ExportFormat format;
+	private final StringBuilder sb = new StringBuilder(1024);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer out = ByteBuffer.allocate(4096);
+
+	RowFormatter(ExportFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * Format a row.
+	 *
+	 * @param row the row
+	 * @param columns the column names of the table
+	 * @return the UTF-8 encoded line, valid until the next call
+	 */
+	ByteBuffer format(SqliteInternalRow row, List<String> columns) {
+		sb.setLength(0);
+		if (format == ExportFormat.CSV) {
+			csv(row);
+		} else {
+			json(row, columns);
+		}
+		sb.append('\n');
+		return encode();
+	}
+
+	/**
+	 * Format the header line of a CSV file. JSON lines have no header.
+	 *
+	 * @return the encoded header or null
+	 */
+	ByteBuffer header(List<String> columns) {
+		if (format != ExportFormat.CSV) {
+			return null;
+		}
+		sb.setLength(0);
+		sb.append("offset;type");
+		for (String c : columns) {
+			sb.append(';');
+			csvText(c);
+		}
+		sb.append('\n');
+		return encode();
+	}
+
+	private void csv(SqliteInternalRow row) {
+		sb.append(row.getOffset()).append(';');
+		csvText(row.getRecordType());
+		for (SqliteElementData d : row.getRowData()) {
+			sb.append(';');
+			if (isNull(d)) {
+				continue;
+			}
+			SerialTypes type = d.getType();
+			if (type == SerialTypes.BLOB) {
+				hex(d.getBlobValue());
+			} else if (type == null || type == SerialTypes.STRING) {
+				csvText(d.getTextValue());
+			} else {
+				value(d);
+			}
+		}
+	}
+
+	private void json(SqliteInternalRow row, List<String> columns) {
+		sb.append("{\"_offset\":").append(row.getOffset());
+		sb.append(",\"_type\":");
+		jsonText(row.getRecordType());
+		List<SqliteElementData> data = row.getRowData();
+		for (int i = 0; i < data.size(); i++) {
+			sb.append(',');
+			jsonText(i < columns.size() ? columns.get(i) : "col" + (i + 1));
+			sb.append(':');
+			SqliteElementData d = data.get(i);
+			if (isNull(d)) {
+				sb.append("null");
+				continue;
+			}
+			SerialTypes type = d.getType();
+			if (type == SerialTypes.BLOB) {
+				sb.append('"');
+				hex(d.getBlobValue());
+				sb.append('"');
+			} else if (type == null || type == SerialTypes.STRING) {
+				jsonText(d.getTextValue());
+			} else if (type == SerialTypes.FLOAT64 && !Double.isFinite(d.getFloatValue())) {
+				/* JSON has no NaN or Infinity */
+				sb.append("null");
+			} else {
+				int start = sb.length();
+				if (!value(d)) {
+					/* a converted timestamp -> quote it */
+					String text = sb.substring(start);
+					sb.setLength(start);
+					jsonText(text);
+				}
+			}
+		}
+		sb.append('}');
+	}
+
+	private static boolean isNull(SqliteElementData d) {
+		if (d == null || d.isNull()) {
+			return true;
+		}
+		/* an empty value is only valid for the constants 0 and 1 */
+		SerialTypes type = d.getType();
+		return d.getLength() == 0 && type != null && type != SerialTypes.INT0 && type != SerialTypes.INT1;
+	}
+
+	/**
+	 * Append a numeric value. Timestamps are converted like in the result
+	 * file, if <code>Global.CONVERT_DATETIME</code> is set.
+	 *
+	 * @return false, if a text (a converted timestamp) was appended
+	 */
+	private boolean value(SqliteElementData d) {
+		switch (d.getType()) {
+		case FLOAT64:
+			double dValue = d.getFloatValue();
+			if (Global.CONVERT_DATETIME) {
+				String date = DatetimeConverter.isMacAbsoluteTime(dValue);
+				if (null != date) {
+					sb.append(date);
+					return false;
+				}
+			}
+			sb.append(dValue);
+			return true;
+		case INT48:
+		case INT64:
+			long lValue = d.getIntValue();
+			if (Global.CONVERT_DATETIME) {
+				String date = DatetimeConverter.isUnixEpoch(lValue);
+				if (null != date) {
+					sb.append(date);
+					return false;
+				}
+			}
+			sb.append(lValue);
+			return true;
+		default:
+			sb.append(d.getIntValue());
+			return true;
+		}
+	}
+
+	private void hex(byte[] value) {
+		sb.ensureCapacity(sb.length() + value.length * 2);
+		for (byte b : value) {
+			int i = (b & 0xFF) * 2;
+			sb.append(HEX[i]).append(HEX[i + 1]);
+		}
+	}
+
+	/**
+	 * Append a CSV field, quoted if it contains a separator, a quote or a
+	 * line break.
+	 */
+	private void csvText(CharSequence s) {
+		if (s == null) {
+			return;
+		}
+		boolean quote = false;
+		for (int i = 0; i < s.length() && !quote; i++) {
+			char c = s.charAt(i);
+			quote = c == ';' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			sb.append(s);
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"') {
+				sb.append('"');
+			}
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	private void jsonText(String s) {
+		if (s == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append("\\u00").append(HEX[c * 2]).append(HEX[c * 2 + 1]);
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+
+	private ByteBuffer encode() {
+		CharBuffer in = CharBuffer.wrap(sb);
+		encoder.reset();
+		out.clear();
+		while (true) {
+			CoderResult r = in.hasRemaining() ? encoder.encode(in, out, true) : CoderResult.UNDERFLOW;
+			if (r.isUnderflow()) {
+				r = encoder.flush(out);
+			}
+			if (r.isUnderflow()) {
+				break;
+			}
+			ByteBuffer bigger = ByteBuffer.allocate(out.capacity() * 2);
+			out.flip();
+			bigger.put(out);
+			out = bigger;
+		}
+		out.flip();
+		return out;
+	}
+}
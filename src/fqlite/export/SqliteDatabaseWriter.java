@@ -0,0 +1,609 @@
+package fqlite.export;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import fqlite.base.Base;
+import fqlite.base.RowSink;
+import fqlite.base.SqliteElementData;
+import fqlite.base.SqliteInternalRow;
+import fqlite.descriptor.TableDescriptor;
+import fqlite.types.SerialTypes;
+
+/**
+ * A RowSink that writes the recovered rows into a new SQLite database.
+ *
+ * Every recovered table becomes a table of the new database. Besides the
+ * recovered columns, each table has three provenance columns: the name of the
+ * table the row was assigned to (<code>_table</code>), the record type
+ * (<code>_type</code>) and the offset of the record in the source file
+ * (<code>_offset</code>). Integers, floats, texts and BLOBs keep their storage
+ * class, so the result can be queried without any conversion.
+ *
+ * While the job is running, the rows are encoded as SQLite records by the
+ * worker threads and appended to a temporary file, in segments of up to 64 KiB
+ * per table. On <code>close()</code>, the b-trees of all tables are built from
+ * the segments of each table (see BTreeWriter). No JDBC driver is needed.
+ */
+public class SqliteDatabaseWriter extends Base implements RowSink {
+
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	/* the records of a table are written to the spool file in segments of this size */
+	private static final int SEGMENT_SIZE = 1 << 16;
+
+	/* the first columns of every table */
+	private static final String[] PROVENANCE = { "_table", "_type", "_offset" };
+	private static final String[] PROVENANCE_TYPES = { "TEXT", "TEXT", "INTEGER" };
+
+	/* SQLITE_VERSION_NUMBER written into the header */
+	private static final int SQLITE_VERSION = 3031001;
+
+	private final Path file;
+	private final int pageSize;
+
+	/* all tables in the order they were discovered, guarded by tables */
+	private final Map<String, Table> tables = new LinkedHashMap<>();
+
+	/* the records of all tables */
+	private final Spool spool = new Spool();
+
+	private final ThreadLocal<RecordEncoder> encoders = ThreadLocal.withInitial(RecordEncoder::new);
+
+	private boolean closed = false;
+
+	public SqliteDatabaseWriter(Path file) {
+		this(file, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param file the database file to create, an existing file is replaced
+	 * @param pageSize the page size, a power of two between 512 and 65536
+	 */
+	public SqliteDatabaseWriter(Path file, int pageSize) {
+		if (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+			throw new IllegalArgumentException("invalid page size: " + pageSize);
+		}
+		this.file = file;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public void tableDiscovered(TableDescriptor td) {
+		table(td.getName()).columns = td.columnnames;
+	}
+
+	@Override
+	public void accept(SqliteInternalRow row) {
+		Table table = table(row.getTableName());
+		RecordEncoder encoder = encoders.get();
+		encoder.encode(row);
+		try {
+			table.append(encoder.record, encoder.length, row.getRowData().size());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Table table(String name) {
+		synchronized (tables) {
+			Table table = tables.get(name);
+			if (null == table) {
+				table = new Table(name);
+				tables.put(name, table);
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Build the database from the collected rows.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (tables) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				write();
+			} finally {
+				spool.delete();
+			}
+		}
+	}
+
+	private void write() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			BTreeWriter writer = new BTreeWriter(channel, pageSize);
+			RecordEncoder encoder = new RecordEncoder();
+
+			/* the tables first, their root pages go into the schema */
+			List<Object[]> schema = new ArrayList<>();
+			Set<String> names = new HashSet<>();
+			for (Table t : tables.values()) {
+				String name = uniqueName(tableName(t.name), names);
+				int root = t.writeTree(writer);
+				String sql = t.createStatement(name);
+				schema.add(new Object[] { "table", name, name, (long) root, sql });
+				info("wrote table ", name, " with ", t.rows, " rows, root page ", root);
+			}
+
+			BTreeWriter.Tree master = writer.newTree(true);
+			for (Object[] entry : schema) {
+				encoder.encode(entry);
+				master.add(encoder.record, encoder.length);
+			}
+			master.finish();
+
+			byte[] page1 = new byte[pageSize];
+			channel.read(ByteBuffer.wrap(page1), 0);
+			writeHeader(page1, writer.getPageCount());
+			writer.writePage(1, page1);
+		}
+	}
+
+	/**
+	 * Fill in the 100 byte database header.
+	 */
+	private void writeHeader(byte[] p, int pages) {
+		byte[] magic = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+		System.arraycopy(magic, 0, p, 0, magic.length);
+		BTreeWriter.putShort(p, 16, pageSize == 65536 ? 1 : pageSize);
+		p[18] = 1; // write version: legacy
+		p[19] = 1; // read version: legacy
+		p[20] = 0; // reserved space
+		p[21] = 64;
+		p[22] = 32;
+		p[23] = 32;
+		BTreeWriter.putInt(p, 24, 1); // file change counter
+		BTreeWriter.putInt(p, 28, pages);
+		BTreeWriter.putInt(p, 32, 0); // no free pages
+		BTreeWriter.putInt(p, 36, 0);
+		BTreeWriter.putInt(p, 40, 1); // schema cookie
+		BTreeWriter.putInt(p, 44, 4); // schema format
+		BTreeWriter.putInt(p, 48, 0);
+		BTreeWriter.putInt(p, 52, 0);
+		BTreeWriter.putInt(p, 56, 1); // UTF-8
+		BTreeWriter.putInt(p, 60, 0);
+		BTreeWriter.putInt(p, 64, 0);
+		BTreeWriter.putInt(p, 68, 0);
+		Arrays.fill(p, 72, 92, (byte) 0);
+		BTreeWriter.putInt(p, 92, 1); // version-valid-for
+		BTreeWriter.putInt(p, 96, SQLITE_VERSION);
+	}
+
+	/**
+	 * Names starting with "sqlite_" are reserved for internal tables.
+	 */
+	private static String tableName(String name) {
+		if (name == null || name.isEmpty()) {
+			return "unnamed";
+		}
+		if (name.toLowerCase().startsWith("sqlite_")) {
+			return "recovered_" + name;
+		}
+		return name;
+	}
+
+	private static String uniqueName(String name, Set<String> used) {
+		String result = name;
+		for (int i = 2; !used.add(result.toLowerCase()); i++) {
+			result = name + "_" + i;
+		}
+		return result;
+	}
+
+	private static String quote(String identifier) {
+		return "\"" + identifier.replace("\"", "\"\"") + "\"";
+	}
+
+	@Override
+	public String toString() {
+		return "SqliteDatabaseWriter [file=" + file + ", pageSize=" + pageSize + ", tables=" + tables.size() + "]";
+	}
+
+	/**
+	 * The temporary file with the records of all tables. The records of a
+	 * table are appended in segments, the table keeps the position of each
+	 * segment.
+	 */
+	private static class Spool {
+
+		/* guarded by this */
+		private Path file;
+		private FileChannel channel;
+		private long size = 0;
+
+		/**
+		 * Append a segment.
+		 *
+		 * @return the position of the segment in the file
+		 */
+		synchronized long write(byte[] b, int length) throws IOException {
+			if (null == channel) {
+				file = Files.createTempFile("fqlite", ".rec");
+				file.toFile().deleteOnExit();
+				channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			long position = size;
+			ByteBuffer buffer = ByteBuffer.wrap(b, 0, length);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, position + buffer.position());
+			}
+			size += length;
+			return position;
+		}
+
+		synchronized void read(long position, byte[] b, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(b, 0, length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new EOFException("truncated spool file");
+				}
+			}
+		}
+
+		synchronized void delete() {
+			try {
+				if (channel != null) {
+					channel.close();
+					channel = null;
+				}
+				if (file != null) {
+					Files.deleteIfExists(file);
+				}
+			} catch (IOException e) {
+				/* deleteOnExit() takes care of it */
+			}
+		}
+	}
+
+	/**
+	 * The rows of one table, stored as records until the database is written.
+	 * The records are collected in a small buffer, a full buffer is appended
+	 * to the spool file as one segment.
+	 */
+	private class Table {
+
+		final String name;
+		List<String> columns;
+
+		/* guarded by this */
+		private byte[] buffer = new byte[1024];
+		private int buffered = 0;
+		private long[] segments = new long[8];
+		private int[] segmentLengths = new int[8];
+		private int segmentCount = 0;
+		private long rows = 0;
+		private int maxColumns = 0;
+
+		Table(String name) {
+			this.name = name;
+		}
+
+		synchronized void append(byte[] record, int length, int columnCount) throws IOException {
+			int needed = buffered + 4 + length;
+			if (needed > buffer.length) {
+				if (buffered > 0 && needed > SEGMENT_SIZE) {
+					flush();
+					needed = 4 + length;
+				}
+				if (needed > buffer.length) {
+					buffer = Arrays.copyOf(buffer, Math.max(needed, Math.min(2 * buffer.length, SEGMENT_SIZE)));
+				}
+			}
+			BTreeWriter.putInt(buffer, buffered, length);
+			System.arraycopy(record, 0, buffer, buffered + 4, length);
+			buffered += 4 + length;
+			rows++;
+			maxColumns = Math.max(maxColumns, columnCount);
+		}
+
+		private void flush() throws IOException {
+			if (segmentCount == segments.length) {
+				segments = Arrays.copyOf(segments, 2 * segmentCount);
+				segmentLengths = Arrays.copyOf(segmentLengths, 2 * segmentCount);
+			}
+			segments[segmentCount] = spool.write(buffer, buffered);
+			segmentLengths[segmentCount++] = buffered;
+			buffered = 0;
+		}
+
+		synchronized int writeTree(BTreeWriter writer) throws IOException {
+			BTreeWriter.Tree tree = writer.newTree(false);
+			byte[] segment = new byte[SEGMENT_SIZE];
+			byte[] record = new byte[256];
+			for (int i = 0; i < segmentCount; i++) {
+				if (segment.length < segmentLengths[i]) {
+					segment = new byte[segmentLengths[i]];
+				}
+				spool.read(segments[i], segment, segmentLengths[i]);
+				record = addRecords(tree, segment, segmentLengths[i], record);
+			}
+			addRecords(tree, buffer, buffered, record);
+			return tree.finish();
+		}
+
+		private byte[] addRecords(BTreeWriter.Tree tree, byte[] segment, int length, byte[] record) throws IOException {
+			ByteBuffer in = ByteBuffer.wrap(segment, 0, length);
+			while (in.hasRemaining()) {
+				int size = in.getInt();
+				if (record.length < size) {
+					record = new byte[Math.max(size, record.length * 2)];
+				}
+				in.get(record, 0, size);
+				tree.add(record, size);
+			}
+			return record;
+		}
+
+		String createStatement(String tableName) {
+			StringBuilder sb = new StringBuilder("CREATE TABLE ");
+			sb.append(quote(tableName)).append('(');
+			Set<String> used = new HashSet<>();
+			for (int i = 0; i < PROVENANCE.length; i++) {
+				used.add(PROVENANCE[i]);
+				sb.append(quote(PROVENANCE[i])).append(' ').append(PROVENANCE_TYPES[i]).append(", ");
+			}
+			int count = Math.max(maxColumns, null == columns ? 0 : columns.size());
+			for (int i = 0; i < count; i++) {
+				String col = null != columns && i < columns.size() ? columns.get(i) : "col" + (i + 1);
+				sb.append(quote(uniqueName(col, used)));
+				sb.append(i + 1 < count ? ", " : "");
+			}
+			if (count == 0) {
+				sb.setLength(sb.length() - 2);
+			}
+			sb.append(')');
+			return sb.toString();
+		}
+
+	}
+
+	/**
+	 * Builds SQLite records. Every worker thread has its own encoder, the
+	 * buffers are reused.
+	 */
+	private static class RecordEncoder {
+
+		private static final byte[] EMPTY = new byte[0];
+
+		byte[] record = new byte[1024];
+		int length;
+
+		/* serial type and value of each field */
+		private long[] types = new long[64];
+		private long[] numbers = new long[64];
+		private byte[][] bytes = new byte[64][];
+		private int fields;
+
+		void encode(SqliteInternalRow row) {
+			fields = 0;
+			add(row.getTableName());
+			add(row.getRecordType());
+			add(row.getOffset());
+			for (SqliteElementData d : row.getRowData()) {
+				add(d);
+			}
+			write();
+		}
+
+		void encode(Object[] entry) {
+			fields = 0;
+			for (Object o : entry) {
+				if (o instanceof Long) {
+					add(((Long) o).longValue());
+				} else {
+					add((String) o);
+				}
+			}
+			write();
+		}
+
+		private void set(long type, long number, byte[] value) {
+			if (fields == types.length) {
+				types = Arrays.copyOf(types, fields * 2);
+				numbers = Arrays.copyOf(numbers, fields * 2);
+				bytes = Arrays.copyOf(bytes, fields * 2);
+			}
+			types[fields] = type;
+			numbers[fields] = number;
+			bytes[fields] = value;
+			fields++;
+		}
+
+		private void set(long type, byte[] value) {
+			set(type, 0, value);
+		}
+
+		private void set(long type, long number) {
+			set(type, number, null);
+		}
+
+		private void add(String s) {
+			if (null == s) {
+				set(0, 0);
+				return;
+			}
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			set(2L * b.length + 13, b);
+		}
+
+		private void add(long v) {
+			if (v == 0) {
+				set(8, 0);
+			} else if (v == 1) {
+				set(9, 0);
+			} else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+				set(1, v);
+			} else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+				set(2, v);
+			} else if (v >= -8388608 && v <= 8388607) {
+				set(3, v);
+			} else if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+				set(4, v);
+			} else if (v >= -140737488355328L && v <= 140737488355327L) {
+				set(5, v);
+			} else {
+				set(6, v);
+			}
+		}
+
+		private void add(SqliteElementData d) {
+			if (null == d) {
+				set(0, 0);
+				return;
+			}
+			SerialTypes type = d.getType();
+			/* the constant 1 and empty TEXT and BLOB values have no data, but keep their type */
+			if (type == SerialTypes.INT1) {
+				set(9, 0);
+				return;
+			}
+			if (d.getLength() == 0 && type == SerialTypes.STRING) {
+				set(13, EMPTY);
+				return;
+			}
+			if (d.getLength() == 0 && type == SerialTypes.BLOB) {
+				set(12, EMPTY);
+				return;
+			}
+			if (d.isNull()) {
+				set(0, 0);
+				return;
+			}
+			if (type == null) {
+				add(d.getTextValue());
+				return;
+			}
+			if (d.getLength() == 0 && type != SerialTypes.INT0) {
+				set(0, 0);
+				return;
+			}
+			switch (type) {
+			case INT0:
+				set(8, 0);
+				break;
+			case FLOAT64:
+				double dValue = d.getFloatValue();
+				if (Double.isNaN(dValue)) {
+					set(0, 0);
+				} else {
+					set(7, Double.doubleToLongBits(dValue));
+				}
+				break;
+			case STRING:
+				if (StandardCharsets.UTF_8.equals(charset(d))) {
+					set(2L * d.getLength() + 13, d.getBlobValue());
+				} else {
+					add(d.getTextValue());
+				}
+				break;
+			case BLOB:
+				set(2L * d.getLength() + 12, d.getBlobValue());
+				break;
+			case NOTUSED1:
+			case NOTUSED2:
+				set(0, 0);
+				break;
+			default:
+				add(d.getIntValue());
+			}
+		}
+
+		private static Charset charset(SqliteElementData d) {
+			Charset c = d.getCharset();
+			return null == c ? StandardCharsets.UTF_8 : c;
+		}
+
+		/**
+		 * Write header and body of the record.
+		 */
+		private void write() {
+			int header = 0;
+			long body = 0;
+			for (int i = 0; i < fields; i++) {
+				header += BTreeWriter.varintLength(types[i]);
+				body += size(types[i]);
+			}
+			/* the header size includes its own varint */
+			int headerSize = header + BTreeWriter.varintLength(header + 1);
+			if (BTreeWriter.varintLength(headerSize) != BTreeWriter.varintLength(header + 1)) {
+				headerSize = header + BTreeWriter.varintLength(headerSize);
+			}
+			long total = headerSize + body;
+			if (total > Integer.MAX_VALUE - 16) {
+				throw new IllegalArgumentException("record too large: " + total);
+			}
+			if (record.length < total) {
+				record = new byte[(int) Math.max(total, record.length * 2L)];
+			}
+
+			int pos = BTreeWriter.putVarint(record, 0, headerSize);
+			for (int i = 0; i < fields; i++) {
+				pos += BTreeWriter.putVarint(record, pos, types[i]);
+			}
+			for (int i = 0; i < fields; i++) {
+				long t = types[i];
+				if (t >= 12) {
+					byte[] b = bytes[i];
+					System.arraycopy(b, 0, record, pos, b.length);
+					pos += b.length;
+				} else if (t >= 1 && t <= 7) {
+					pos = putLong(pos, numbers[i], size(t));
+				}
+				bytes[i] = null;
+			}
+			length = pos;
+		}
+
+		private int putLong(int pos, long v, int n) {
+			for (int i = n - 1; i >= 0; i--) {
+				record[pos + i] = (byte) v;
+				v >>= 8;
+			}
+			return pos + n;
+		}
+
+		private static int size(long type) {
+			if (type >= 12) {
+				return (int) ((type - 12) / 2);
+			}
+			switch ((int) type) {
+			case 1:
+				return 1;
+			case 2:
+				return 2;
+			case 3:
+				return 3;
+			case 4:
+				return 4;
+			case 5:
+				return 6;
+			case 6:
+			case 7:
+				return 8;
+			default:
+				return 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package fqlite.export;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fqlite.base.Base;
+import fqlite.base.RowSink;
+import fqlite.base.SqliteInternalRow;
+import fqlite.descriptor.TableDescriptor;
+
+/**
+ * A RowSink that writes one file per table, either as CSV or as JSON Lines.
+ *
+ * The rows are formatted by the worker threads that recovered them, every
+ * thread with its own RowFormatter. The file of a table is created with its
+ * first row. The name of the file is the prefix, the table name and the
+ * extension of the format (plus <code>.gz</code>, if the output is
+ * compressed).
+ */
+public class TableExporter extends Base implements RowSink {
+
+	/* size of the buffer of each open file */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	/* number of files that are open at the same time */
+	public static final int DEFAULT_OPEN_FILES = 64;
+
+	private final Path directory;
+	private final String prefix;
+	private final ExportFormat format;
+	private final boolean gzip;
+	private final int bufferSize;
+	private final int maxOpenFiles;
+
+	private final Map<String, List<String>> columns = new ConcurrentHashMap<>();
+	private final Map<String, TableFile> files = new ConcurrentHashMap<>();
+	/* file names already used, guarded by files */
+	private final Set<String> names = new HashSet<>();
+	/* files that may be open, the least recently used first, guarded by itself */
+	private final Map<TableFile, Boolean> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final ThreadLocal<RowFormatter> formatters;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory the output directory, it is created if necessary
+	 * @param prefix prefix of all file names, e.g. the name of the database
+	 * @param format CSV or JSONL
+	 * @param gzip true, to compress the files
+	 */
+	public TableExporter(Path directory, String prefix, ExportFormat format, boolean gzip) {
+		this(directory, prefix, format, gzip, DEFAULT_BUFFER_SIZE, DEFAULT_OPEN_FILES);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param directory the output directory, it is created if necessary
+	 * @param prefix prefix of all file names, e.g. the name of the database
+	 * @param format CSV or JSONL
+	 * @param gzip true, to compress the files
+	 * @param bufferSize size of the buffer of each open file
+	 * @param maxOpenFiles number of files kept open, the least recently used file is closed and reopened later
+	 */
+	public TableExporter(Path directory, String prefix, ExportFormat format, boolean gzip, int bufferSize, int maxOpenFiles) {
+		if (format == ExportFormat.SQLITE) {
+			throw new IllegalArgumentException("use SqliteDatabaseWriter to create a database");
+		}
+		this.directory = directory;
+		this.prefix = null == prefix ? "" : prefix;
+		this.format = format;
+		this.gzip = gzip;
+		this.bufferSize = bufferSize;
+		this.maxOpenFiles = Math.max(1, maxOpenFiles);
+		this.formatters = ThreadLocal.withInitial(() -> new RowFormatter(format));
+	}
+
+	@Override
+	public void tableDiscovered(TableDescriptor td) {
+		if (td.columnnames != null) {
+			columns.put(td.getName(), td.columnnames);
+		}
+	}
+
+	@Override
+	public void accept(SqliteInternalRow row) {
+		try {
+			TableFile file = file(row);
+			ByteBuffer line = formatters.get().format(row, columnsOf(row.getTableName()));
+			used(file);
+			file.writeRow(line);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Mark a file as used and suspend the least recently used file, if too
+	 * many files are open. A file that is written by another thread at the
+	 * same time may be reopened right away, so the limit is not exact.
+	 */
+	private void used(TableFile file) throws IOException {
+		TableFile eldest = null;
+		synchronized (recent) {
+			recent.put(file, Boolean.TRUE);
+			if (recent.size() > maxOpenFiles) {
+				eldest = recent.keySet().iterator().next();
+				recent.remove(eldest);
+			}
+		}
+		if (eldest != null) {
+			eldest.suspend();
+		}
+	}
+
+	private List<String> columnsOf(String table) {
+		List<String> c = columns.get(table);
+		return null == c ? Collections.emptyList() : c;
+	}
+
+	private TableFile file(SqliteInternalRow row) throws IOException {
+		TableFile file = files.get(row.getTableName());
+		if (file != null) {
+			return file;
+		}
+		synchronized (files) {
+			file = files.get(row.getTableName());
+			if (file == null) {
+				file = open(row);
+				files.put(row.getTableName(), file);
+			}
+		}
+		return file;
+	}
+
+	private TableFile open(SqliteInternalRow row) throws IOException {
+		Files.createDirectories(directory);
+		String base = prefix + fileName(row.getTableName());
+		String name = base;
+		for (int i = 2; !names.add(name.toLowerCase()); i++) {
+			name = base + "_" + i;
+		}
+		name += "." + format.getExtension() + (gzip ? ".gz" : "");
+
+		TableFile file = new TableFile(directory.resolve(name), bufferSize, gzip);
+		List<String> header = columnsOf(row.getTableName());
+		if (header.isEmpty()) {
+			/* table without a schema entry (e.g. an index) */
+			header = new ArrayList<>();
+			for (int i = 1; i <= row.getRowData().size(); i++) {
+				header.add("col" + i);
+			}
+		}
+		ByteBuffer line = formatters.get().header(header);
+		if (line != null) {
+			file.writeHeader(line);
+		}
+		info("export table ", row.getTableName(), " to ", file.getPath());
+		return file;
+	}
+
+	/**
+	 * Replace all characters that are not safe in a file name.
+	 */
+	private static String fileName(String table) {
+		StringBuilder sb = new StringBuilder(table.length());
+		for (int i = 0; i < table.length(); i++) {
+			char c = table.charAt(i);
+			boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+			sb.append(safe ? c : '_');
+		}
+		return sb.length() == 0 ? "_" : sb.toString();
+	}
+
+	/**
+	 * @return the files written so far (table name -&gt; path)
+	 */
+	public Map<String, Path> getFiles() {
+		Map<String, Path> result = new LinkedHashMap<>();
+		synchronized (files) {
+			for (Map.Entry<String, TableFile> e : files.entrySet()) {
+				result.put(e.getKey(), e.getValue().getPath());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Flush and close all files.
+	 */
+	@Override
+	public void close() throws IOException {
+		IOException first = null;
+		synchronized (files) {
+			for (TableFile file : files.values()) {
+				try {
+					file.close();
+					info(file.getPath(), ": ", file.getRows(), " rows");
+				} catch (IOException e) {
+					if (first == null) {
+						first = e;
+					}
+				}
+			}
+			files.clear();
+		}
+		synchronized (recent) {
+			recent.clear();
+		}
+		if (first != null) {
+			throw first;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TableExporter [directory=" + directory + ", format=" + format + ", gzip=" + gzip + ", tables=" + files.size() + "]";
+	}
+}
@@ -0,0 +1,93 @@
+package fqlite.export;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The output file of one table.
+ *
+ * The lines are collected in a heap buffer and written to the file when the
+ * buffer is full. With compression, a GZIPOutputStream takes the place of the
+ * buffer. All methods are synchronized, worker threads append their lines one
+ * after another.
+ *
+ * A database can have many tables, so the stream of a file may be closed by
+ * <code>suspend()</code> between two rows. The next row opens the file again
+ * and appends to it. A compressed file gets a new gzip member then, the
+ * members of a gzip file are decompressed one after another.
+ */
+class TableFile {
+
+	private final Path path;
+	private final int bufferSize;
+	private final boolean gzip;
+	/* null while the file is suspended */
+	private OutputStream out;
+	private long rows = 0;
+
+	TableFile(Path path, int bufferSize, boolean gzip) throws IOException {
+		this.path = path;
+		this.bufferSize = bufferSize;
+		this.gzip = gzip;
+		this.out = open(StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	private OutputStream open(StandardOpenOption mode) throws IOException {
+		OutputStream raw = Files.newOutputStream(path, StandardOpenOption.CREATE, mode, StandardOpenOption.WRITE);
+		return gzip ? new GZIPOutputStream(raw, bufferSize) : new BufferedOutputStream(raw, bufferSize);
+	}
+
+	Path getPath() {
+		return path;
+	}
+
+	synchronized long getRows() {
+		return rows;
+	}
+
+	/**
+	 * Append a header line.
+	 */
+	synchronized void writeHeader(ByteBuffer line) throws IOException {
+		write(line);
+	}
+
+	/**
+	 * Append a row.
+	 */
+	synchronized void writeRow(ByteBuffer line) throws IOException {
+		write(line);
+		rows++;
+	}
+
+	private void write(ByteBuffer line) throws IOException {
+		if (null == out) {
+			out = open(StandardOpenOption.APPEND);
+		}
+		out.write(line.array(), line.arrayOffset() + line.position(), line.remaining());
+	}
+
+	/**
+	 * Write the buffered lines and close the stream until the next line is
+	 * appended.
+	 */
+	synchronized void suspend() throws IOException {
+		close();
+	}
+
+	synchronized void close() throws IOException {
+		if (null != out) {
+			try {
+				out.close();
+			} finally {
+				out = null;
+			}
+		}
+	}
+}
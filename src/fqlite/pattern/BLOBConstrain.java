@@ -15,4 +15,15 @@ public class BLOBConstrain implements Constraint {
 		return ">=12";
 	}
 
+	/* all objects of this class check the same */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof BLOBConstrain;
+	}
+
+	@Override
+	public int hashCode() {
+		return BLOBConstrain.class.hashCode();
+	}
+
 }
@@ -0,0 +1,100 @@
+package fqlite.pattern;
+
+/**
+ * A HeaderPattern prepared for matching.
+ *
+ * Nearly all serial types of a record header are single byte varints
+ * (0..127). For every constraint of the pattern, the accepted values of
+ * this range are stored in a 128 bit table (two longs), so checking a value
+ * is a shift and a mask instead of a call of the constraint. Only the
+ * larger values of multi-byte varints (long TEXT and BLOB values) are
+ * checked by the constraint itself.
+ *
+ * Objects of this class do not change and can be shared by all threads.
+ */
+public final class CompiledHeaderPattern {
+
+	private final Constraint[] constraints;
+	/* accepted values 0..63 and 64..127 of every constraint */
+	private final long[] low;
+	private final long[] high;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pattern the pattern to compile
+	 */
+	public CompiledHeaderPattern(HeaderPattern pattern) {
+		int n = pattern.size();
+		constraints = new Constraint[n];
+		low = new long[n];
+		high = new long[n];
+		for (int i = 0; i < n; i++) {
+			Constraint c = pattern.get(i);
+			constraints[i] = c;
+			low[i] = table(c, 0);
+			high[i] = table(c, 64);
+		}
+	}
+
+	/**
+	 * The accepted values from <code>from</code> to <code>from + 63</code>.
+	 */
+	static long table(Constraint c, int from) {
+		long bits = 0;
+		for (int v = 0; v < 64; v++) {
+			if (c.match(from + v))
+				bits |= 1L << v;
+		}
+		return bits;
+	}
+
+	/**
+	 * Check a value against a constraint of a table, see table().
+	 */
+	static boolean match(long low, long high, Constraint c, int value) {
+		if (value < 64)
+			return (low & (1L << value)) != 0;
+		if (value < 128)
+			return (high & (1L << (value - 64))) != 0;
+		return c.match(value);
+	}
+
+	/**
+	 * @param idx the index of the constraint
+	 * @return the smallest accepted single byte value or -1, if there is none
+	 */
+	public int minByte(int idx) {
+		if (low[idx] != 0)
+			return Long.numberOfTrailingZeros(low[idx]);
+		if (high[idx] != 0)
+			return 64 + Long.numberOfTrailingZeros(high[idx]);
+		return -1;
+	}
+
+	/**
+	 * @param idx the index of the constraint
+	 * @return the largest accepted single byte value or -1, if there is none
+	 */
+	public int maxByte(int idx) {
+		if (high[idx] != 0)
+			return 127 - Long.numberOfLeadingZeros(high[idx]);
+		if (low[idx] != 0)
+			return 63 - Long.numberOfLeadingZeros(low[idx]);
+		return -1;
+	}
+
+	/**
+	 * @param idx the index of the constraint
+	 * @param value a serial type (not negative)
+	 * @return true, if the constraint accepts the value
+	 */
+	public boolean match(int idx, int value) {
+		return match(low[idx], high[idx], constraints[idx], value);
+	}
+
+	public int size() {
+		return constraints.length;
+	}
+
+}
@@ -18,4 +18,15 @@ public class FloatingConstrain implements Constraint {
 		return "07";
 	}
 
+	/* all objects of this class check the same */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof FloatingConstrain;
+	}
+
+	@Override
+	public int hashCode() {
+		return FloatingConstrain.class.hashCode();
+	}
+
 }
@@ -0,0 +1,154 @@
+package fqlite.pattern;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The header patterns of all tables, compiled into one trie.
+ *
+ * Every edge of the trie is a constraint, patterns with the same
+ * constraints at the beginning share the same path. A pattern is added
+ * once for every matching mode, i.e. starting with its first, second and
+ * third constraint (see SerialTypeMatcher).
+ *
+ * The automaton answers the question, which tables can have a record
+ * header inside a region at all. All start positions of the region are
+ * checked in one sweep for all tables, instead of running the
+ * SerialTypeMatcher for every table and mode. A pattern that does not
+ * match anywhere in a region does not match in a part of it either, so
+ * the carver can skip these tables and modes.
+ *
+ * The automaton does not change after it has been created and can be
+ * used by all worker threads.
+ */
+public class HeaderAutomaton {
+
+	private static final MatchingMode[] MODES = MatchingMode.values();
+
+	private final Node root = new Node();
+
+	/* index of each pattern */
+	private final Map<HeaderPattern, Integer> patterns = new IdentityHashMap<>();
+
+	private static final class Node {
+		Constraint[] constraints = new Constraint[0];
+		/* accepted values 0..127 of each constraint, see CompiledHeaderPattern */
+		long[] low = new long[0];
+		long[] high = new long[0];
+		Node[] children = new Node[0];
+		/* pattern * MODES + mode of the patterns ending here */
+		int[] accept = new int[0];
+
+		Node child(Constraint c) {
+			for (int i = 0; i < constraints.length; i++) {
+				if (constraints[i].equals(c))
+					return children[i];
+			}
+			Node n = new Node();
+			constraints = Arrays.copyOf(constraints, constraints.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			constraints[constraints.length - 1] = c;
+			low = Arrays.copyOf(low, low.length + 1);
+			high = Arrays.copyOf(high, high.length + 1);
+			low[low.length - 1] = CompiledHeaderPattern.table(c, 0);
+			high[high.length - 1] = CompiledHeaderPattern.table(c, 64);
+			children[children.length - 1] = n;
+			return n;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param headers the header patterns of the tables, null entries are ignored
+	 */
+	public HeaderAutomaton(List<HeaderPattern> headers) {
+		for (HeaderPattern pattern : headers) {
+			if (null == pattern || patterns.containsKey(pattern))
+				continue;
+			int idx = patterns.size();
+			patterns.put(pattern, idx);
+
+			for (MatchingMode mode : MODES) {
+				int first = SerialTypeMatcher.firstConstraint(mode);
+				if (first >= pattern.size())
+					continue;
+				Node n = root;
+				for (int i = first; i < pattern.size(); i++) {
+					n = n.child(pattern.get(i));
+				}
+				n.accept = Arrays.copyOf(n.accept, n.accept.length + 1);
+				n.accept[n.accept.length - 1] = idx * MODES.length + mode.ordinal();
+			}
+		}
+	}
+
+	/**
+	 * @param pattern a header pattern
+	 * @return the index of the pattern or -1, if the pattern is not part of the automaton
+	 */
+	public int indexOf(HeaderPattern pattern) {
+		Integer idx = patterns.get(pattern);
+		return null == idx ? -1 : idx;
+	}
+
+	/**
+	 * Check every start position of a region. This is the region of a
+	 * SerialTypeMatcher: a match starts at <code>from</code> or later and
+	 * every varint of a match starts before <code>to - 4</code>.
+	 *
+	 * @param matcher the matcher of the page, its varints are shared
+	 * @param from the start of the region
+	 * @param to the end of the region
+	 * @param result the patterns and modes that match are added to this set
+	 * @return the result
+	 */
+	public BitSet scan(SerialTypeMatcher matcher, int from, int to, BitSet result) {
+		for (int p = from; p < to - 4; p++) {
+			walk(root, matcher, p, to - 4, result);
+		}
+		return result;
+	}
+
+	private static void walk(Node node, SerialTypeMatcher matcher, int p, int limit, BitSet result) {
+		for (int a : node.accept)
+			result.set(a);
+		if (node.children.length == 0 || p >= limit)
+			return;
+
+		long v = matcher.varint(p);
+		if (v < 0)
+			return;
+		int value = (int) v;
+		int next = p + (int) (v >>> 32);
+		for (int i = 0; i < node.children.length; i++) {
+			if (CompiledHeaderPattern.match(node.low[i], node.high[i], node.constraints[i], value))
+				walk(node.children[i], matcher, next, limit, result);
+		}
+	}
+
+	/**
+	 * @param result the result of scan()
+	 * @param pattern the index of the pattern
+	 * @param mode the matching mode
+	 * @return true, if the pattern matched in this mode
+	 */
+	public static boolean matches(BitSet result, int pattern, MatchingMode mode) {
+		return result.get(pattern * MODES.length + mode.ordinal());
+	}
+
+	/**
+	 * @return the number of patterns
+	 */
+	public int size() {
+		return patterns.size();
+	}
+
+	@Override
+	public String toString() {
+		return "HeaderAutomaton [patterns=" + patterns.size() + "]";
+	}
+}
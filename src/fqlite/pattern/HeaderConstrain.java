@@ -36,4 +36,17 @@ public class HeaderConstrain implements Constraint {
 		return s.toString();
 	}
 
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof HeaderConstrain))
+			return false;
+		HeaderConstrain c = (HeaderConstrain) obj;
+		return min == c.min && max == c.max;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * min + max;
+	}
+
 }
@@ -18,6 +18,9 @@ import java.util.List;
 public class HeaderPattern {
 	
 	List<Constraint> pattern = new ArrayList<Constraint>();
+	
+	/* created on demand, see compile() */
+	private volatile CompiledHeaderPattern compiled = null;
 
 	/**
 	 *  Do nothing. Default-Constructor.
@@ -35,11 +38,29 @@ public class HeaderPattern {
 	public void change2RowID(int idx)
     {
         pattern.set(idx, new ZeroConstrain());
+        compiled = null;
     }
 	
 	public void add(Constraint c)
 	{
 		pattern.add(c);
+		compiled = null;
+	}
+	
+	/**
+	 * Get the pattern prepared for matching. 
+	 * 
+	 * @return the compiled pattern, it is created again after the pattern has changed
+	 */
+	public CompiledHeaderPattern compile()
+	{
+		CompiledHeaderPattern c = compiled;
+		if (null == c)
+		{
+			c = new CompiledHeaderPattern(this);
+			compiled = c;
+		}
+		return c;
 	}
 	
 	public int size()
@@ -52,7 +73,7 @@ public class HeaderPattern {
 	 */
 	public void addZeroConstraint() 
 	{
-		pattern.add(new ZeroConstrain());
+		add(new ZeroConstrain());
 	}
 
 	/**
@@ -62,7 +83,7 @@ public class HeaderPattern {
 	 */
 	public void addHeaderConstraint(int min, int max) 
 	{
-		pattern.add(new HeaderConstrain(min,max));
+		add(new HeaderConstrain(min,max));
 		
 	}
 	
@@ -72,7 +93,7 @@ public class HeaderPattern {
 	 */
 	public void addIntegerConstraint() 
 	{
-		pattern.add(new IntegerConstraint(false));
+		add(new IntegerConstraint(false));
 	}
 	
 	
@@ -82,7 +103,7 @@ public class HeaderPattern {
 	 **/
 	public void addStringConstraint() 
 	{
-		pattern.add(new StringConstrain());
+		add(new StringConstrain());
 	}
 	
 	
@@ -93,13 +114,13 @@ public class HeaderPattern {
 	 **/
 	public void addStringConstraint(int maxlength) 
 	{
-		pattern.add(new StringConstrain(maxlength));
+		add(new StringConstrain(maxlength));
 	}
 	
 	
 	public void addNumericConstraint() 
 	{
-		pattern.add(new NumericConstrain());
+		add(new NumericConstrain());
 	}
 	
 	/**
@@ -107,7 +128,7 @@ public class HeaderPattern {
 	 */
 	public void addBLOBConstraint() 
 	{
-		pattern.add(new BLOBConstrain());
+		add(new BLOBConstrain());
 	}
 	
 	/**
@@ -115,7 +136,7 @@ public class HeaderPattern {
 	 */
 	public void addFloatingConstraint()
 	{
-		pattern.add(new FloatingConstrain());
+		add(new FloatingConstrain());
 	}
 	
 	
@@ -26,5 +26,17 @@ public class IntegerConstraint implements Constraint {
 		return "0" + min + "..06";
 	}
 
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof IntegerConstraint))
+			return false;
+		IntegerConstraint c = (IntegerConstraint) obj;
+		return min == c.min && max == c.max;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * min + max;
+	}
 
 }
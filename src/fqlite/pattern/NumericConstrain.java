@@ -20,4 +20,15 @@ public class NumericConstrain implements Constraint{
 		return "00..255";
 	}
 	
+	/* all objects of this class check the same */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof NumericConstrain;
+	}
+
+	@Override
+	public int hashCode() {
+		return NumericConstrain.class.hashCode();
+	}
+
 }
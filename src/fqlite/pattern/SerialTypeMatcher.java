@@ -1,6 +1,8 @@
 package fqlite.pattern;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import fqlite.util.Auxiliary;
 import fqlite.util.BufferUtil;
@@ -15,6 +17,7 @@ import fqlite.util.BufferUtil;
 public class SerialTypeMatcher {
 
 	HeaderPattern pattern = null;
+	CompiledHeaderPattern compiled = null;
 	ByteBuffer buffer = null;
 	int pos = 0;
 	int startRegion;
@@ -22,6 +25,8 @@ public class SerialTypeMatcher {
 	int start;
 	int end;
 	MatchingMode mode = MatchingMode.NORMAL;
+	/* the varints of the buffer by position (0 = not decoded yet), see varint() */
+	int[] varints = new int[0];
 
 	/**
 	 * Constructor.
@@ -29,7 +34,31 @@ public class SerialTypeMatcher {
 	 * @param buffer ByteBuffer to analyze
 	 */
 	public SerialTypeMatcher(ByteBuffer buffer) {
+		reset(buffer);
+	}
+
+	/**
+	 * Reset the matcher to its initial state and analyze another buffer. This
+	 * allows a worker to reuse one matcher for all the pages it processes.
+	 * 
+	 * The varints of the buffer are decoded only once, so the matcher has to
+	 * be reset when the content of the buffer changes. Switching the pattern,
+	 * the mode or the region keeps the decoded varints.
+	 * 
+	 * @param buffer ByteBuffer to analyze
+	 */
+	public void reset(ByteBuffer buffer) {
 		this.buffer = buffer;
+		if (varints.length < buffer.capacity())
+			varints = new int[buffer.capacity()];
+		else
+			Arrays.fill(varints, 0, buffer.capacity(), 0);
+		pattern = null;
+		compiled = null;
+		pos = 0;
+		start = 0;
+		end = 0;
+		mode = MatchingMode.NORMAL;
 		startRegion = 0;
 		endRegion = buffer.capacity();
 		buffer.position(0);
@@ -56,6 +85,7 @@ public class SerialTypeMatcher {
 	 */
 	public void setPattern(HeaderPattern pattern) {
 		this.pattern = pattern;
+		this.compiled = null == pattern ? null : pattern.compile();
 	}
 
 	/**
@@ -102,37 +132,32 @@ public class SerialTypeMatcher {
 	public boolean find() {
 		
 
-		int idx = 0;
-		switch (mode) {
-		case NORMAL:
-			idx = 0;
-			break;
-
-		case NOHEADER:
-			idx = 1;
-			break;
-
-		case NO1stCOL:
-			idx = 2;
-			break;
-		}
+		int idx = firstConstraint(mode);
 		int i = idx;
 
 		/* check pattern constrain by constrain */
   
-		if (i < pattern.size()) {
-    		while (i < pattern.size()) {
+		CompiledHeaderPattern cp = compiled;
+		int size = cp.size();
+		if (i < size) {
+    		while (i < size) {
     			/* do not read out of bounds - stop before the end */
     			if (buffer.position() < (endRegion - 4)) {
     				/* remember the begin of a possible match */
     				int current = buffer.position();
-    				if (i == idx)
+    				if (i == idx) {
+    					/* go to the next byte the first constraint can match */
+    					current = skip(cp, idx, current, endRegion - 4);
+    					if (current >= endRegion - 4)
+    						return false;
+    					buffer.position(current);
     					pos = current;
+    				}
     				/* read next value */
     				int value = readUnsignedVarInt();
     				// no varint OR costrain does not match -> skip this an go on with the next
     				// bytes
-    				if (value == -1 || !pattern.get(i).match(value)) {
+    				if (value == -1 || !cp.match(i, value)) {
     					current++;
     					buffer.position(current);
     					/* and again, startRegion the beginning but with the next byte */
@@ -162,6 +187,79 @@ public class SerialTypeMatcher {
 		return true; // byte number of the match
 	}
 
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH = 0x8080808080808080L;
+
+	/**
+	 * Find the next position the first constraint of a match can accept.
+	 * 
+	 * A single byte varint is the byte itself, so a position whose byte is
+	 * below 0x80 and not accepted by the constraint cannot start a match. The
+	 * bytes are checked eight at a time (SWAR): every byte of a long gets a
+	 * flag, if it is at least 0x80 or within the range of accepted single
+	 * byte values. Only the flagged bytes are checked one by one.
+	 * 
+	 * @param cp the pattern
+	 * @param idx the first constraint
+	 * @param p the position to start with
+	 * @param limit the end of the positions to check
+	 * @return the first possible position or a value &gt;= limit
+	 */
+	private int skip(CompiledHeaderPattern cp, int idx, int p, int limit) {
+		int min = cp.minByte(idx);
+		int max = cp.maxByte(idx);
+
+		/* flags for the bytes > m and < n, see below */
+		long lower = min > 0 ? ONES * (128 - min) : 0;
+		long upper = ONES * (127 + max + 1);
+		boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+
+		while (p + 8 <= limit) {
+			long x = buffer.getLong(p);
+			long y = x & ~HIGH;
+			long flags = x & HIGH;
+			if (min >= 0) {
+				/* y < max + 1 and y > min - 1, no byte can carry into the next one */
+				long inRange = (upper - y) & HIGH;
+				if (min > 0)
+					inRange &= (y + lower) & HIGH;
+				flags |= inRange;
+			}
+			while (flags != 0) {
+				int k = bigEndian ? Long.numberOfLeadingZeros(flags) >>> 3 : Long.numberOfTrailingZeros(flags) >>> 3;
+				if (plausible(cp, idx, p + k))
+					return p + k;
+				flags &= ~(0x80L << (bigEndian ? (7 - k) << 3 : k << 3));
+			}
+			p += 8;
+		}
+		while (p < limit && !plausible(cp, idx, p))
+			p++;
+		return p;
+	}
+
+	private boolean plausible(CompiledHeaderPattern cp, int idx, int p) {
+		int b = buffer.get(p);
+		return b < 0 || cp.match(idx, b);
+	}
+
+	/**
+	 * The constraint of a pattern a match starts with.
+	 * 
+	 * @param mode the matching mode
+	 * @return the index of the first constraint to check
+	 */
+	static int firstConstraint(MatchingMode mode) {
+		switch (mode) {
+		case NOHEADER:
+			return 1;
+		case NO1stCOL:
+			return 2;
+		default:
+			return 0;
+		}
+	}
+
 	/**
 	 * Returns the input subsequence matched by the previous match. For a matcher m
 	 * with input sequence s, the expressions m.group() and s.substring(m.start(),
@@ -176,6 +274,25 @@ public class SerialTypeMatcher {
 		return ByteBuffer.wrap(match);
 	}
 
+	/**
+	 * Copy the bytes of the previous match into an array.
+	 * 
+	 * @param dst the destination array
+	 * @param off the position of the first byte in the destination array
+	 * @return the number of bytes copied, i.e. <code>end() - start()</code>
+	 */
+	public int group(byte[] dst, int off) {
+		int len = end - start;
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + start, dst, off, len);
+		} else {
+			for (int i = 0; i < len; i++) {
+				dst[off + i] = buffer.get(start + i);
+			}
+		}
+		return len;
+	}
+
 	/**
 	 * Returns the input subsequence matched by the previous match. The return value
 	 * contains a hex-representation of the match byte values.
@@ -209,6 +326,46 @@ public class SerialTypeMatcher {
 	 * @return the corresponding int value or -1 if no varint could be found.
 	 */
 	public int readUnsignedVarInt() {
+		int p = buffer.position();
+		long v = varint(p);
+		if (v < 0) {
+			/* the bytes up to the last one checked are consumed anyway */
+			buffer.position(p + 4);
+			return -1;
+		}
+		buffer.position(p + (int) (v >>> 32));
+		return (int) v;
+	}
+
+	/**
+	 * Get the varint at an absolute position, like readUnsignedVarInt(). 
+	 * Every position is decoded only once, all patterns and matching modes 
+	 * share the values.
+	 * 
+	 * @param p the position of the first byte
+	 * @return the number of bytes in the upper and the value in the lower 32
+	 *         bits or -1 if no varint could be found.
+	 */
+	public long varint(int p) {
+		int v = varints[p];
+		if (v == 0) {
+			long r = readVarInt(buffer, p);
+			/* at most 4 bytes with a value below 2^28 */
+			v = r < 0 ? -1 : ((int) (r >>> 32) << 28) | (int) r;
+			varints[p] = v;
+		}
+		return v < 0 ? -1 : ((long) (v >>> 28) << 32) | (v & 0x0FFFFFFF);
+	}
+
+	/**
+	 * Read a varint at an absolute position, like readUnsignedVarInt().
+	 * 
+	 * @param buffer the buffer
+	 * @param p the position of the first byte
+	 * @return the number of bytes in the upper and the value in the lower 32
+	 *         bits or -1 if no varint could be found.
+	 */
+	private static long readVarInt(ByteBuffer buffer, int p) {
 		int value = 0;
 		int b = 0;
 		int counter = 0;
@@ -217,7 +374,7 @@ public class SerialTypeMatcher {
 		// as long as we have a byte with most significant bit value 1
 		// there are more byte to read
 		// we only read a maximum of 3 bytes (8 bytes would be possible to)
-		while ((((b = buffer.get()) & 0x80) != 0) && counter < 3) {
+		while ((((b = buffer.get(p + counter)) & 0x80) != 0) && counter < 3) {
 			counter++;
 			shift += 7;
 			value |= (b & 0x7F) << shift;
@@ -228,9 +385,7 @@ public class SerialTypeMatcher {
 			return -1;
 
 		// return a normalized integer value
-		return value | b;
+		return ((long) (counter + 1) << 32) | (value | b);
 	}
 
-	
-
 }
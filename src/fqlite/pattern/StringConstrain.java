@@ -24,6 +24,15 @@ public class StringConstrain implements Constraint {
 	public String toString(){
 		return ">=13";
 	}
-	
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof StringConstrain && max == ((StringConstrain) obj).max;
+	}
+
+	@Override
+	public int hashCode() {
+		return max;
+	}
 
 }
@@ -23,5 +23,15 @@ public class ZeroConstrain implements Constraint{
 		return "00";
 	}
 
+	/* all objects of this class check the same */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof ZeroConstrain;
+	}
+
+	@Override
+	public int hashCode() {
+		return ZeroConstrain.class.hashCode();
+	}
 
 }
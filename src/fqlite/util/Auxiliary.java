@@ -4,12 +4,15 @@ import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 
 import fqlite.base.Base;
+import fqlite.base.FirstColumnType;
 import fqlite.base.Global;
 import fqlite.base.Job;
 import fqlite.base.SqliteElement;
@@ -19,7 +22,6 @@ import fqlite.descriptor.IndexDescriptor;
 import fqlite.descriptor.TableDescriptor;
 import fqlite.pattern.HeaderPattern;
 import fqlite.pattern.IntegerConstraint;
-import fqlite.types.SerialTypes;
 import fqlite.types.StorageClasses;
 import java.nio.Buffer;
 
@@ -190,39 +192,58 @@ public class Auxiliary extends Base {
 	 */
 	public CarvingResult readDeletedRecord(Job job, int start, ByteBuffer buffer, String header, BitSet bs,
 			int pagenumber) throws IOException {
+		return readDeletedRecord(job, start, buffer, header, bs, pagenumber, null);
+	}
+
+	/**
+	 * Extract a previously deleted record, but only decode some of the columns.
+	 * 
+	 * @param keep the columns to decode (see <code>Job.getColumnProjection()</code>) or null for all columns
+	 * @see #readDeletedRecord(Job, int, ByteBuffer, String, BitSet, int)
+	 */
+	public CarvingResult readDeletedRecord(Job job, int start, ByteBuffer buffer, String header, BitSet bs,
+			int pagenumber, boolean[] keep) throws IOException {
+		byte[] bytes = decode(header);
+		return readDeletedRecord(job, start, buffer, bytes, 0, bytes.length, bs, pagenumber, keep);
+	}
+
+	/**
+	 * Extract a previously deleted record. The header is passed as bytes, 
+	 * the hex string of the line suffix is only created when it is needed.
+	 * 
+	 * @param header     array with the record header (header length and serial types)
+	 * @param off        first byte of the header
+	 * @param len        number of header bytes
+	 * @param keep       the columns to decode or null for all columns
+	 * @see #readDeletedRecord(Job, int, ByteBuffer, String, BitSet, int)
+	 */
+	public CarvingResult readDeletedRecord(Job job, int start, ByteBuffer buffer, byte[] header, int off, int len,
+			BitSet bs, int pagenumber, boolean[] keep) throws IOException {
 
 		SqliteElement[] columns;
 
 		buffer.position(start);
 
-		int recordstart = start - (header.length() / 2);
+		int recordstart = start - len;
 
 		/* skip the header length byte */
-		header = header.substring(2);
+		off++;
+		len--;
 
-		columns = toColumns(header, job.db_encoding);
+		columns = convertHeaderToSqliteElements(header, off, len, job.db_encoding);
 
 		if (null == columns)
 			return null;
 
 		SqliteInternalRow row = new SqliteInternalRow();
-		//int co = 0;
-		String fp = null;
-		try {
-			fp = getTableFingerPrint(columns);
-
-		} catch (NullPointerException err) {
-			// System.err.println(err);
-		}
-		if (null == fp)
-			fp = "unkown";
 
 		boolean error = false;
+		int col = 0;
 
 		row.setOffset((pagenumber - 1) * job.ps + buffer.position());
 
 		/* use the header information to reconstruct */
-		int pll = computePayloadLength(header);
+		int pll = computePayloadLengthS(header, off, len);
 
 		int so;
 		so = computePayload(pll);
@@ -230,7 +251,7 @@ public class Auxiliary extends Base {
 		int overflow = -1;
 
 		if (so < pll) {
-			int phl = header.length() / 2;
+			int phl = len;
 
 			int last = buffer.position();
 			debug(" deleted spilled payload ::", so);
@@ -298,11 +319,13 @@ public class Auxiliary extends Base {
 					continue;
 				}
 
-				byte[] value = BufferUtil.allocateByteBuffer(en.length);
-
-				bf.get(value);
-
-				row.append(new SqliteElementData(en, value));
+				if (projected(keep, col++)) {
+					/* bf is either the page itself or a copy with the overflow */
+					row.append(SqliteElementData.slice(en, bf, valueLength(en.length), bf == buffer));
+				} else {
+					skip(bf, valueLength(en.length));
+					row.append(SqliteElementData.SKIPPED);
+				}
 
 				//co++;
 			}
@@ -319,14 +342,17 @@ public class Auxiliary extends Base {
 					continue;
 				}
 
-				byte[] value = BufferUtil.allocateByteBuffer(en.length);
-				if ((buffer.position() + en.length) > buffer.limit()) {
+				if ((buffer.position() + valueLength(en.length)) > buffer.limit()) {
 					error = true;
 					return null;
 				}
-				buffer.get(value);
 
-				row.append(new SqliteElementData(en, value));
+				if (projected(keep, col++)) {
+					row.append(SqliteElementData.slice(en, buffer, valueLength(en.length), true));
+				} else {
+					skip(buffer, valueLength(en.length));
+					row.append(SqliteElementData.SKIPPED);
+				}
 
 				//co++;
 
@@ -343,7 +369,7 @@ public class Auxiliary extends Base {
 		debug("visited :: ", (((pagenumber - 1) * job.ps) + recordstart), " to ", cursor);
 
 		/* append header match string at the end */
-		row.setLineSuffix("##header##" + header);
+		row.setHeader(header, off, len);
 
 		// if (!tables.containsKey(idxname))
 		// tables.put(idxname, new ArrayList<String[]>());
@@ -376,7 +402,7 @@ public class Auxiliary extends Base {
 	 * 
 	 **/
 	public SqliteInternalRow readRecord(int cellstart, ByteBuffer buffer, int pagenumber_db, BitSet bs, int pagetype,
-			int maxlength, StringBuffer firstcol, boolean withoutROWID, int filepointer) throws IOException {
+			int maxlength, FirstColumnType firstcol, boolean withoutROWID, int filepointer) throws IOException {
 
 		boolean unkown = false;
 		// first byte of the buffer
@@ -489,12 +515,8 @@ public class Auxiliary extends Base {
 		if (phl <= 0)
 			return null;
 
+		/* the header bytes start here, see setHeader() below */
 		int pp = buffer.position();
-		String hh = "";
-		if (job.collectInternalRows) {
-		    hh = getHeaderString(phl, buffer);
-		}
-		buffer.position(pp);
 		
 		columns = getColumns(phl, buffer, firstcol);
 
@@ -532,6 +554,9 @@ public class Auxiliary extends Base {
 
 		boolean error = false;
 
+		/* columns that are not needed are skipped */
+		boolean[] keep = job.getColumnProjection(row.getTableName());
+
 		int so = computePayload(pll);
 
 		int overflow = -1;
@@ -610,14 +635,14 @@ public class Auxiliary extends Base {
 					continue;
 				}
 
-				if (!withoutROWID && co == 0 && en.length == 0) {
+				if (!projected(keep, co)) {
+				    /* not needed -> only move to the next value */
+				    skip(bf, Math.min(valueLength(en.length), bf.remaining()));
+				    row.append(SqliteElementData.SKIPPED);
+				} else if (!withoutROWID && co == 0 && en.length == 0) {
 				    row.append(new SqliteElementData(en, rowid));
 				} else if (en.length == 0) {
-				    if (en.type == SerialTypes.INT0) {
-				        row.append(new SqliteElementData(en, 0));
-				    } else {
-				        row.append(new SqliteElementData(null, job.db_encoding));
-				    }
+				    row.append(SqliteElementData.empty(en, job.db_encoding));
 				} else {
 				    int len = en.length;
 				    
@@ -629,9 +654,7 @@ public class Auxiliary extends Base {
 
 				    try {
 				        if (len>0) {
-				            byte[] value = BufferUtil.allocateByteBuffer(len);
-	                        bf.get(value);
-	                        row.append(new SqliteElementData(en, value));
+	                        row.append(SqliteElementData.slice(en, bf, valueLength(len), false));
 				        } else {
 				            row.append(new SqliteElementData(null, job.db_encoding)); 
 				        }
@@ -671,35 +694,40 @@ public class Auxiliary extends Base {
 					continue;
 				}
 
-				if (!withoutROWID && co == 0 && en.length == 0) {
+				if (en.length == 0 && !projected(keep, co)) {
+                    row.append(SqliteElementData.SKIPPED);
+                } else if (!withoutROWID && co == 0 && en.length == 0) {
                     row.append(new SqliteElementData(en, rowid));
                 } else if (en.length == 0) {
-                    if (en.type == SerialTypes.INT0) {
-                        row.append(new SqliteElementData(en, 0));
-                    } else {
-                        row.append(new SqliteElementData(null, job.db_encoding));
-                    }
+                    row.append(SqliteElementData.empty(en, job.db_encoding));
                 } else {
 
-    				byte[] value = null;
+    				int len = -1;
     				if (maxlength >= en.length)
-    					value = BufferUtil.allocateByteBuffer(en.length);
+    					len = en.length;
     				else if (maxlength > 0)
-    					value = BufferUtil.allocateByteBuffer(maxlength);
+    					len = maxlength;
     				maxlength -= en.length;
     
-    				if (null == value)
+    				if (len < 0)
     					break;
     
+    				/* the value references the page until the page buffer is recycled */
+    				SqliteElementData value;
     				try {
-    					buffer.get(value);
+    					if (projected(keep, co)) {
+    						value = SqliteElementData.slice(en, buffer, valueLength(len), true);
+    					} else {
+    						skip(buffer, valueLength(len));
+    						value = SqliteElementData.SKIPPED;
+    					}
     				} catch (BufferUnderflowException err) {
     					info("readRecord():: no overflow ERROR ", err);
     					// err.printStackTrace();
     					return null;
     				}
     
-   				    row.append(new SqliteElementData(en, value));
+   				    row.append(value);
                 }
 
 				co++;
@@ -712,7 +740,7 @@ public class Auxiliary extends Base {
 
 		/* append header match string at the end */
 		if (job.collectInternalRows) {
-		    row.setLineSuffix("##header##" + hh);
+		    setHeader(row, buffer, pp, phl);
 		}
 
 		//lineUTF.append("\n");
@@ -731,36 +759,16 @@ public class Auxiliary extends Base {
 
 	private TableDescriptor matchTable(SqliteElement[] header) {
 
-		for (TableDescriptor table : job.headers.values()) {
-			if (table.getColumntypes().size() == header.length) {
-				int idx = 0;
-				boolean eq = true;
-
-				// System.out.println("TDS component " + table.tblname + " :: " +
-				// table.columntypes.toString());
-
-				// List<String> tblcolumns = table.columntypes;
-
-				for (SqliteElement s : header) {
-					String type = table.getColumntypes().get(idx);
-
-					// System.out.println(s.serial.name() + " <?>" + type);
-					if (!s.serial.name().equals(type)) {
-						eq = false;
-						break;
-					}
-					idx++;
-				}
-
-				if (eq) {
+		TableDescriptor table = job.getSignatureIndex().match(header);
 
-					// System.out.println(" Match found " + table.tblname);
-					return table;
-				}
-			}
+		if (null == table && LOGLEVEL <= DEBUG) {
+			List<String> names = new ArrayList<String>();
+			for (TableDescriptor td : job.getSignatureIndex().candidates(header, 3))
+				names.add(td.tblname);
+			debug(" no table for record, candidates ", names);
 		}
 
-		return null;
+		return table;
 	}
 	
 	/**
@@ -808,6 +816,7 @@ public class Auxiliary extends Base {
             byte[] current = BufferUtil.allocateByteBuffer(job.ps - 4);
             overflowpage.position(4);
             overflowpage.get(current, 0, job.ps - 4);
+            BufferUtil.releasePageBuffer(overflowpage.array());
             // Wrap a byte array into a buffer
             ByteBuffer part = ByteBuffer.wrap(current);
             parts.add(part);
@@ -854,74 +863,6 @@ public class Auxiliary extends Base {
 		return r;
 	}
 
-	/**
-	 * This method can be used to compute the payload length for a record, which pll
-	 * field is deleted or overwritten.
-	 * 
-	 * @param header should be the complete header without headerlength byte
-	 * @return the number of bytes including header and payload
-	 */
-	private int computePayloadLength(String header) {
-		// System.out.println("HEADER" + header);
-		byte[] bcol = Auxiliary.decode(header);
-
-		long[] columns = readVarInt(bcol);
-		int pll = 0;
-
-		pll += header.length() / 2 + 1;
-
-		for (int i = 0; i < columns.length; i++) {
-			switch ((int)columns[i]) {
-			case 0: // zero length - primary key is saved in indices component
-				break;
-			case 1:
-				pll += 1; // 8bit complement integer
-				break;
-			case 2: // 16bit integer
-				pll += 2;
-				break;
-			case 3: // 24bit integer
-				pll += 3;
-				break;
-			case 4: // 32bit integer
-				pll += 4;
-				break;
-			case 5: // 48bit integer
-				pll += 6;
-				break;
-			case 6: // 64bit integer
-				pll += 8;
-				break;
-			case 7: // Big-endian floating point number
-				pll += 8;
-				break;
-			case 8: // Integer constant 0
-				break;
-			case 9: // Integer constant 1
-				break;
-			case 10: // not used ;
-				break;
-			case 11:
-				break;
-
-			default:
-				if (columns[i] % 2 == 0) // even
-				{
-					// BLOB with the length (N-12)/2
-					pll += (columns[i] - 12) / 2;
-				} else // odd
-				{
-					// String in database encoding (N-13)/2
-					pll += (columns[i] - 13) / 2;
-				}
-
-			}
-
-		}
-
-		return pll;
-	}
-
 	/**
 	 * 
 	 * @param header string with the header
@@ -960,7 +901,15 @@ public class Auxiliary extends Base {
 	 * @return the column field
 	 * @throws IOException if the buffer is not readable
 	 */
-	public SqliteElement[] getColumns(int headerlength, ByteBuffer buffer, StringBuffer firstcol) throws IOException {
+	public SqliteElement[] getColumns(int headerlength, ByteBuffer buffer, FirstColumnType firstcol) throws IOException {
+
+		if (buffer.hasArray() && headerlength > 0 && headerlength <= buffer.remaining()) {
+			/* parse the header directly from the page */
+			int off = buffer.arrayOffset() + buffer.position();
+			buffer.position(buffer.position() + headerlength);
+			firstcol.set(buffer.array()[off]);
+			return convertHeaderToSqliteElements(buffer.array(), off, headerlength, job.db_encoding);
+		}
 
 		byte[] header = BufferUtil.allocateByteBuffer(headerlength);
 
@@ -973,12 +922,7 @@ public class Auxiliary extends Base {
 			return null;
 		}
 
-		String sheader = byteToHex(header[0]);
-
-		if (sheader.length() > 1) {
-			firstcol.insert(0, sheader);
-		}
-		// System.out.println("getColumns():: + Header: " + sheader);
+		firstcol.set(header[0]);
 
 		return convertHeaderToSqliteElements(header, job.db_encoding);
 	}
@@ -992,77 +936,49 @@ public class Auxiliary extends Base {
 	 * @return SqliteElements converted
 	 */
 	public static SqliteElement[] convertHeaderToSqliteElements(byte[] header, Charset charset) {
+		return convertHeaderToSqliteElements(header, 0, header.length, charset);
+	}
+
+	/**
+	 * Converts the header bytes <code>header[off] .. header[off + len - 1]</code>
+	 * into a field of SQLite elements. The serial types are parsed into a
+	 * reusable array of the current thread, the elements of the fixed size
+	 * types are shared (see <code>SqliteElement.forSerialType()</code>).
+	 * 
+	 * @param header Header bytes to read from
+	 * @param off first header byte
+	 * @param len number of header bytes
+	 * @param charset Charset to be used in decoding
+	 * @return SqliteElements converted or null, if the last varint is incomplete
+	 */
+	public static SqliteElement[] convertHeaderToSqliteElements(byte[] header, int off, int len, Charset charset) {
 		// there are several varint values in the serialtypes header
-		long[] columns = readVarInt(header);
-		if (null == columns)
+		long[] types = SERIAL_TYPES.get();
+		if (types.length < len) {
+			types = new long[Math.max(len, 2 * types.length)];
+			SERIAL_TYPES.set(types);
+		}
+		int n = readVarInt(header, off, len, types);
+		if (n < 0)
 			return null;
 
-		SqliteElement[] column = new SqliteElement[columns.length];
-
-		for (int i = 0; i < columns.length; i++) {
-
-			switch ((int)columns[i]) {
-			case 0: // primary key or null value <empty> cell
-				column[i] = new SqliteElement(SerialTypes.PRIMARY_KEY, StorageClasses.INT, 0, charset);
-				break;
-			case 1: // 8bit complement integer
-				column[i] = new SqliteElement(SerialTypes.INT8, StorageClasses.INT, 1, charset);
-				break;
-			case 2: // 16bit integer
-				column[i] = new SqliteElement(SerialTypes.INT16, StorageClasses.INT, 2, charset);
-				break;
-			case 3: // 24bit integer
-				column[i] = new SqliteElement(SerialTypes.INT24, StorageClasses.INT, 3, charset);
-				break;
-			case 4: // 32bit integer
-				column[i] = new SqliteElement(SerialTypes.INT32, StorageClasses.INT, 4, charset);
-				break;
-			case 5: // 48bit integer
-				column[i] = new SqliteElement(SerialTypes.INT48, StorageClasses.INT, 6, charset);
-				break;
-			case 6: // 64bit integer
-				column[i] = new SqliteElement(SerialTypes.INT64, StorageClasses.INT, 8, charset);
-				break;
-			case 7: // Big-endian floating point number
-				column[i] = new SqliteElement(SerialTypes.FLOAT64, StorageClasses.FLOAT, 8, charset);
-				break;
-			case 8: // Integer constant 0
-				column[i] = new SqliteElement(SerialTypes.INT0, StorageClasses.INT, 0, charset);
-				break;
-			case 9: // Integer constant 1
-				column[i] = new SqliteElement(SerialTypes.INT1, StorageClasses.INT, 0, charset);
-				break;
-			case 10: // not used ;
-				columns[i] = 0;
-				break;
-			case 11:
-				// columns[i] = 0;
-				break;
-			default:
-				if (columns[i] % 2 == 0) // even
-				{
-					// BLOB with the length (N-12)/2
-				    int len = (int) (columns[i] - 12) / 2;
-				    if (len >= 0) {
-				        column[i] = new SqliteElement(SerialTypes.BLOB, StorageClasses.BLOB, len, charset);
-				    }
-				} 
-				else // odd
-				{
-					// String in database encoding (N-13)/2
-				    int len = (int) (columns[i] - 13) / 2;
-				    if (len >= 0 ) {
-				        column[i] = new SqliteElement(SerialTypes.STRING, StorageClasses.TEXT, len, charset);
-				    }
-				}
-
+		SqliteElement[] fixed = SqliteElement.fixedSizeTypes(charset);
+		SqliteElement[] column = new SqliteElement[n];
+		for (int i = 0; i < n; i++) {
+			long type = types[i];
+			if (type >= 0 && type < fixed.length) {
+				column[i] = fixed[(int) type];
+			} else {
+				column[i] = SqliteElement.forSerialType(type, charset);
 			}
-
 		}
 
 		return column;
 	}
 
+	/* serial types of the header that is converted by the current thread */
+	private static final ThreadLocal<long[]> SERIAL_TYPES = ThreadLocal.withInitial(() -> new long[64]);
+
 	/**
 	 * Computes the amount of payload that spills onto overflow pages.
 	 * 
@@ -1218,6 +1134,48 @@ public class Auxiliary extends Base {
 
 	}
 
+	/**
+	 * Keep the header bytes of a record for the line suffix of the row.
+	 */
+	private static void setHeader(SqliteInternalRow row, ByteBuffer buffer, int pos, int len) {
+		if (buffer.hasArray()) {
+			row.setHeader(buffer.array(), buffer.arrayOffset() + pos, len);
+		} else {
+			byte[] header = new byte[len];
+			for (int i = 0; i < len; i++) {
+				header[i] = buffer.get(pos + i);
+			}
+			row.setHeader(header, 0, len);
+		}
+	}
+
+	/**
+	 * @return true, if column <code>co</code> is part of the projection
+	 */
+	private static boolean projected(boolean[] keep, int co) {
+		return null == keep || (co < keep.length && keep[co]);
+	}
+
+	/**
+	 * Move behind a value that is not decoded.
+	 * 
+	 * @throws BufferUnderflowException if the value is not complete
+	 */
+	private static void skip(ByteBuffer buffer, int length) {
+		if (buffer.remaining() < length) {
+			throw new BufferUnderflowException();
+		}
+		buffer.position(buffer.position() + length);
+	}
+
+	/**
+	 * Values are limited to MAX_BUFFER_SIZE bytes (like the buffers of
+	 * <code>BufferUtil.allocateByteBuffer()</code>).
+	 */
+	static int valueLength(int length) {
+		return Math.min(length, Global.MAX_BUFFER_SIZE);
+	}
+
 	private static byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
 	/**
      * Converts a byte array to Hex-String. 
@@ -1297,21 +1255,38 @@ public class Auxiliary extends Base {
      * @return the int value
      */
     public static long[] readVarInt(byte[] values){
+        long[] res = new long[values.length];
+        int n = readVarInt(values, 0, values.length, res);
+        if (n < 0) {
+            return null;
+        }
+        return n == res.length ? res : Arrays.copyOf(res, n);
+    }
 
-        ByteBuffer in = ByteBuffer.wrap(values);
-        LinkedList<Long> res = new LinkedList<Long>();
-
-
-        while (in.position() < in.limit()) {
-            byte b = in.get();            
+    /**
+     * Read all varints of <code>values[off] .. values[off + len - 1]</code>
+     * into an array of the caller. There are at most <code>len</code> values.
+     * 
+     * @param values the bytes to read from
+     * @param off the first byte
+     * @param len number of bytes
+     * @param result the array for the values
+     * @return the number of values or -1, if the last varint is incomplete
+     */
+    public static int readVarInt(byte[] values, int off, int len, long[] result) {
+        int end = off + len;
+        int pos = off;
+        int n = 0;
+        while (pos < end) {
+            byte b = values[pos++];
             long value = b & 0x7F;
             int counter = 0;
             while ((b & 0x80) != 0 && counter < 8) {
                 counter ++;
-                if (in.position() >= in.limit()) {
-                    return null;
+                if (pos >= end) {
+                    return -1;
                 }
-                b = in.get();
+                b = values[pos++];
                 value <<= 7;
                 if (counter == 8) {
                     value |= (b & 0xFF); 
@@ -1319,11 +1294,9 @@ public class Auxiliary extends Base {
                     value |= (b & 0x7F);
                 }
             }
-
-            res.add(value);
-        } 
-
-		return res.stream().mapToLong(i -> i).toArray();        
+            result[n++] = value;
+        }
+        return n;
     }
 	
 	public static String getSerial(SqliteElement[] columns) {
@@ -1363,13 +1336,29 @@ public class Auxiliary extends Base {
 	public static int computePayloadLengthS(String header) {
 	    Logger.out.info("HEADER", header);
 		byte[] bcol = Auxiliary.decode(header);
-		long[] columns = Auxiliary.readVarInt(bcol);
+		return computePayloadLengthS(bcol, 0, bcol.length);
+	}
+
+	/**
+	 * Compute the payload length from the serial types of a header.
+	 * 
+	 * @param header array with the header without headerlength byte
+	 * @param off first byte of the header
+	 * @param len number of header bytes
+	 * @return the number of bytes including header and payload
+	 */
+	public static int computePayloadLengthS(byte[] header, int off, int len) {
+		long[] columns = SERIAL_TYPES.get();
+		if (columns.length < len) {
+			columns = new long[Math.max(len, 2 * columns.length)];
+			SERIAL_TYPES.set(columns);
+		}
+		int n = readVarInt(header, off, len, columns);
 		int pll = 0;
 
-	
-		pll += header.length() / 2 + 1;
+		pll += len + 1;
 
-		for (int i = 0; i < columns.length; i++) {
+		for (int i = 0; i < n; i++) {
 			switch ((int) columns[i]) {
 			case 0: // zero length - primary key is saved in indices component
 				break;
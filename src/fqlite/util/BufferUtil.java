@@ -1,8 +1,19 @@
 package fqlite.util;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
 import fqlite.base.Global;
+import fqlite.base.SqliteElementData;
 
 public class BufferUtil {
+    
+    /* maximum number of free page buffers that are kept per thread */
+    private static final int MAX_POOLED_BUFFERS = 16;
+    
+    /* every worker thread has its own free list -> no synchronization needed */
+    private static final ThreadLocal<PagePool> POOL = ThreadLocal.withInitial(PagePool::new);
+    
     public static byte[] allocateByteBuffer(int size, int max_size) {
         if (size > max_size) {
             size = max_size;
@@ -13,4 +24,78 @@ public class BufferUtil {
     public static byte[] allocateByteBuffer(int size) {
         return allocateByteBuffer(size, Global.MAX_BUFFER_SIZE);
     }
+    
+    /**
+     * Get a page buffer from the free list of the current thread. A new array
+     * is allocated if the free list is empty. The content of a reused array is
+     * not cleared, the caller is expected to overwrite it completely.
+     * 
+     * @param size the page size
+     * @return an array with exactly <code>size</code> bytes (at most MAX_BUFFER_SIZE)
+     */
+    public static byte[] acquirePageBuffer(int size) {
+        PagePool pool = POOL.get();
+        if (pool.size == size) {
+            byte[] buffer = pool.free.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return allocateByteBuffer(size);
+    }
+    
+    /**
+     * Return a page buffer to the free list of the current thread. The array
+     * must not be used by the caller afterwards. The free list only holds
+     * arrays of one size - if the page size changes, the old arrays are dropped.
+     * 
+     * Values that still reference the buffer get their own copy first.
+     * 
+     * @param buffer the page buffer to give back
+     */
+    public static void releasePageBuffer(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        PagePool pool = POOL.get();
+        if (!pool.shared.isEmpty()) {
+            detach(pool.shared, buffer);
+        }
+        if (pool.size != buffer.length) {
+            pool.free.clear();
+            pool.size = buffer.length;
+        }
+        if (pool.free.size() < MAX_POOLED_BUFFERS) {
+            pool.free.push(buffer);
+        }
+    }
+    
+    /**
+     * Register a value that references a page buffer of the current thread.
+     * The value is detached before the page buffer is recycled.
+     * 
+     * @param value the value, see <code>SqliteElementData.slice()</code>
+     */
+    public static void share(SqliteElementData value) {
+        POOL.get().shared.add(value);
+    }
+    
+    private static void detach(ArrayList<SqliteElementData> shared, byte[] buffer) {
+        int n = 0;
+        for (int i = 0; i < shared.size(); i++) {
+            SqliteElementData value = shared.get(i);
+            if (!value.detach(buffer)) {
+                /* references another page buffer that is still in use */
+                shared.set(n++, value);
+            }
+        }
+        shared.subList(n, shared.size()).clear();
+    }
+    
+    private static class PagePool {
+        int size = -1;
+        final ArrayDeque<byte[]> free = new ArrayDeque<>();
+        /* values that reference one of the page buffers in use */
+        final ArrayList<SqliteElementData> shared = new ArrayList<>();
+    }
 }
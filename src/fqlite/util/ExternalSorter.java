@@ -0,0 +1,330 @@
+package fqlite.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts a large number of lines (in the natural order of String) with a
+ * bounded amount of memory.
+ *
+ * Every thread that adds lines fills its own chunk. A full chunk is sorted by
+ * the thread that filled it and written to a temporary file (a sorted run).
+ * <code>writeTo()</code> sorts the chunks that are still in memory and merges
+ * them with the runs on disk into the output. The result is the same as
+ * sorting all lines at once.
+ *
+ * At most <code>MAX_FAN_IN</code> runs are open at the same time. If there are
+ * more runs, the oldest ones are merged into larger runs first.
+ *
+ * <code>add()</code> may be called from several threads at the same time. All
+ * threads have to be finished before <code>writeTo()</code> is called.
+ */
+public class ExternalSorter implements Closeable {
+
+    /* default limit for the lines kept in memory */
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    /* maximum number of runs that are merged (and open) at the same time */
+    public static final int MAX_FAN_IN = 64;
+
+    /* rough memory usage of a String apart from its characters */
+    private static final int LINE_OVERHEAD = 48;
+
+    private final long chunkLimit;
+    private final Path tempDir;
+
+    /* all chunks and runs, guarded by this */
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final List<Run> runs = new ArrayList<>();
+    private long count = 0;
+
+    private final ThreadLocal<Chunk> current = ThreadLocal.withInitial(this::newChunk);
+
+    /**
+     * @param memoryLimit approximate number of bytes of lines kept in memory
+     * @param parallelism number of threads that add lines at the same time
+     * @param tempDir directory for the temporary files, <code>null</code> for the default
+     */
+    public ExternalSorter(long memoryLimit, int parallelism, Path tempDir) {
+        this.chunkLimit = Math.max(1, memoryLimit / Math.max(1, parallelism));
+        this.tempDir = tempDir;
+    }
+
+    private Chunk newChunk() {
+        Chunk chunk = new Chunk();
+        synchronized (this) {
+            chunks.add(chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Add a line. If the chunk of the calling thread is full, it is sorted
+     * and written to disk.
+     *
+     * @param line the line
+     * @throws IOException if the chunk cannot be written
+     */
+    public void add(String line) throws IOException {
+        Chunk chunk = current.get();
+        chunk.add(line);
+        if (chunk.bytes > chunkLimit) {
+            spill(chunk);
+        }
+    }
+
+    private void spill(Chunk chunk) throws IOException {
+        String[] lines = chunk.sorted();
+        Path file = newRunFile();
+        synchronized (this) {
+            runs.add(new Run(file, lines.length));
+        }
+        try (DataOutputStream out = runOutput(file)) {
+            for (String line : lines) {
+                writeLine(out, line);
+            }
+        }
+        chunk.clear();
+    }
+
+    private Path newRunFile() throws IOException {
+        Path file = null == tempDir ? Files.createTempFile("fqlite", ".sort") : Files.createTempFile(tempDir, "fqlite", ".sort");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static DataOutputStream runOutput(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+    }
+
+    private static void writeLine(DataOutputStream out, String line) throws IOException {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * @return number of lines added so far
+     */
+    public synchronized long size() {
+        long size = count;
+        for (Chunk c : chunks) {
+            size += c.size;
+        }
+        return size;
+    }
+
+    /**
+     * Write all lines in sorted order.
+     *
+     * @param out the destination
+     * @throws IOException if a run cannot be read or the output cannot be written
+     */
+    public synchronized void writeTo(Writer out) throws IOException {
+        while (runs.size() > MAX_FAN_IN) {
+            mergeRuns();
+        }
+        /* the chunks in memory are sorted in parallel */
+        List<String[]> sorted = new ArrayList<>();
+        for (Chunk c : chunks) {
+            if (c.size > 0) {
+                sorted.add(c.sorted());
+            }
+        }
+        merge(runs, sorted, out::write);
+    }
+
+    /**
+     * Merge the oldest <code>MAX_FAN_IN</code> runs into a new run.
+     */
+    private void mergeRuns() throws IOException {
+        List<Run> merged = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+        long lines = 0;
+        for (Run run : merged) {
+            lines += run.count;
+        }
+        Path file = newRunFile();
+        try (DataOutputStream out = runOutput(file)) {
+            merge(merged, new ArrayList<>(), line -> writeLine(out, line));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        runs.subList(0, MAX_FAN_IN).clear();
+        runs.add(new Run(file, lines));
+        for (Run run : merged) {
+            Files.deleteIfExists(run.file);
+        }
+    }
+
+    private interface LineOutput {
+        void write(String line) throws IOException;
+    }
+
+    private static void merge(List<Run> runs, List<String[]> sorted, LineOutput out) throws IOException {
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (Run run : runs) {
+                cursors.add(new RunCursor(run));
+            }
+            for (String[] lines : sorted) {
+                cursors.add(new ArrayCursor(lines));
+            }
+
+            PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> a.line.compareTo(b.line));
+            for (Cursor c : cursors) {
+                if (c.advance()) {
+                    queue.add(c);
+                }
+            }
+            while (!queue.isEmpty()) {
+                Cursor c = queue.poll();
+                out.write(c.line);
+                if (c.advance()) {
+                    queue.add(c);
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (Cursor c : cursors) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * Remove the temporary files and drop all lines.
+     */
+    @Override
+    public synchronized void close() {
+        for (Run run : runs) {
+            try {
+                Files.deleteIfExists(run.file);
+            } catch (IOException e) {
+                /* deleteOnExit() takes care of it */
+            }
+        }
+        runs.clear();
+        for (Chunk c : chunks) {
+            c.clear();
+        }
+        count = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExternalSorter [lines=" + size() + ", runs=" + runs.size() + ", chunks=" + chunks.size() + "]";
+    }
+
+    /**
+     * The lines added by one thread since its last spill.
+     */
+    private class Chunk {
+        String[] lines = new String[1024];
+        int size = 0;
+        long bytes = 0;
+
+        void add(String line) {
+            if (size == lines.length) {
+                lines = Arrays.copyOf(lines, size * 2);
+            }
+            lines[size++] = line;
+            bytes += LINE_OVERHEAD + 2L * line.length();
+        }
+
+        String[] sorted() {
+            String[] result = Arrays.copyOf(lines, size);
+            Arrays.parallelSort(result);
+            return result;
+        }
+
+        void clear() {
+            synchronized (ExternalSorter.this) {
+                count += size;
+            }
+            lines = new String[1024];
+            size = 0;
+            bytes = 0;
+        }
+    }
+
+    private static class Run {
+        final Path file;
+        final long count;
+
+        Run(Path file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+    /**
+     * One sorted input of the merge.
+     */
+    private abstract static class Cursor implements Closeable {
+        String line;
+
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static class ArrayCursor extends Cursor {
+        private final String[] lines;
+        private int pos = 0;
+
+        ArrayCursor(String[] lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        boolean advance() {
+            line = pos < lines.length ? lines[pos++] : null;
+            return line != null;
+        }
+    }
+
+    private static class RunCursor extends Cursor {
+        private final DataInputStream in;
+        private long remaining;
+
+        RunCursor(Run run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file), 1 << 16));
+            this.remaining = run.count;
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                line = null;
+                return false;
+            }
+            remaining--;
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            line = new String(b, StandardCharsets.UTF_8);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -26,6 +26,41 @@ public abstract class LongPositionByteBuffer implements Closeable {
     
     public abstract long size();
     
+    /**
+     * Read bytes from an absolute offset into <code>dst</code>, up to its
+     * remaining capacity. Neither the cursor nor the lock of this buffer is
+     * involved, so several threads can read concurrently.
+     * 
+     * @param offset absolute offset to start reading
+     * @param dst the destination buffer
+     * @return number of bytes read, or -1 if offset is at or beyond the end
+     * @throws IOException if an I/O error occurs
+     */
+    public abstract int readAt(long offset, ByteBuffer dst) throws IOException;
+    
+    /**
+     * Read a complete page into <code>dst</code>. Page numbers start with 1,
+     * like the page numbers of SQLite.
+     * 
+     * @param pageNo the page number (1 is the first page)
+     * @param pagesize the page size of the file
+     * @param dst the destination buffer, at least <code>pagesize</code> bytes remaining
+     * @return number of bytes read, or -1 if the page is beyond the end
+     * @throws IOException if an I/O error occurs
+     */
+    public int readPage(long pageNo, int pagesize, ByteBuffer dst) throws IOException {
+        if (pageNo < 1 || dst.remaining() < pagesize) {
+            throw new IllegalArgumentException("page " + pageNo + " with " + pagesize + " bytes does not fit");
+        }
+        ByteBuffer page = dst.duplicate();
+        page.limit(page.position() + pagesize);
+        int read = readAt((pageNo - 1) * pagesize, page);
+        if (read > 0) {
+            dst.position(dst.position() + read);
+        }
+        return read;
+    }
+    
     public ByteBuffer allocateAndReadBuffer(int size) throws IOException {
         synchronized (lock) {
             try {
@@ -46,6 +46,21 @@ public class LongPositionByteBufferWrapper extends LongPositionByteBuffer {
         return this;
     }
     
+    @Override
+    public int readAt(long offset, ByteBuffer dst) throws IOException {
+        if (offset < 0 || offset >= size()) {
+            return -1;
+        }
+        ByteBuffer src = buffer.duplicate();
+        src.position((int) offset);
+        if (src.remaining() > dst.remaining()) {
+            src.limit(src.position() + dst.remaining());
+        }
+        int read = src.remaining();
+        dst.put(src);
+        return read;
+    }
+    
     @Override
     public long size() {
         return buffer.remaining() + buffer.position();
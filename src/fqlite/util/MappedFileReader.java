@@ -0,0 +1,163 @@
+package fqlite.util;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only view of a file that is mapped into memory.
+ *
+ * A single MappedByteBuffer is limited to 2 GiB, so the file is split into
+ * several segments of fixed size. Positional reads (see
+ * <code>readAt()</code> and <code>allocateAndReadBuffer(long, int)</code>)
+ * copy the bytes without holding the lock and do not issue any system call,
+ * so concurrent recovery tasks can read pages in parallel.
+ *
+ * Note: the mapping is released by the garbage collector, not by close().
+ */
+public class MappedFileReader extends LongPositionByteBuffer {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private MappedByteBuffer[] segments;
+    private volatile long position;
+    private long size;
+
+    public MappedFileReader(Path path) throws IOException {
+        super();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+            segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                long length = Math.min(SEGMENT_SIZE, size - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        position = 0;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public long position(long newPosition) throws IOException {
+        if (newPosition > size) {
+            throw new BufferUnderflowException();
+        }
+        synchronized (lock) {
+            long oldPosition = position;
+            position = newPosition;
+            return oldPosition;
+        }
+    }
+
+    @Override
+    public byte get() throws IOException {
+        synchronized (lock) {
+            if (position >= size) {
+                throw new BufferUnderflowException();
+            }
+            byte resp = segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+            position++;
+            return resp;
+        }
+    }
+
+    @Override
+    public LongPositionByteBuffer get(byte[] dst, int offset, int length) throws IOException {
+        synchronized (lock) {
+            read(position, dst, offset, length);
+            position += length;
+            return this;
+        }
+    }
+
+    @Override
+    public LongPositionByteBuffer get(byte[] dst) throws IOException {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * Read a block of bytes from the given file offset. The cursor and the
+     * lock are left untouched.
+     */
+    private void read(long from, byte[] dst, int offset, int length) {
+        if (from < 0 || from + length > size) {
+            throw new BufferUnderflowException();
+        }
+        while (length > 0) {
+            ByteBuffer segment = segments[(int) (from >>> SEGMENT_SHIFT)].duplicate();
+            int inSegment = (int) (from & SEGMENT_MASK);
+            int toRead = Math.min(length, segment.capacity() - inSegment);
+            ((Buffer) segment).position(inSegment);
+            segment.get(dst, offset, toRead);
+            from += toRead;
+            offset += toRead;
+            length -= toRead;
+        }
+    }
+
+    /**
+     * Positional read without holding the lock while copying. The bytes do
+     * not depend on the cursor, so page readers from different threads do not
+     * block each other. The cursor is then moved behind the block under the
+     * lock (for callers that continue reading sequentially), so the result
+     * is the same as a seek and a read in one step.
+     */
+    @Override
+    public ByteBuffer allocateAndReadBuffer(long position, int size) throws IOException {
+        try {
+            byte[] bytes = BufferUtil.allocateByteBuffer(size);
+            read(position, bytes, 0, bytes.length);
+            synchronized (lock) {
+                this.position = position + bytes.length;
+            }
+            return ByteBuffer.wrap(bytes);
+        } catch (BufferUnderflowException e) {
+        }
+        return null;
+    }
+
+    @Override
+    public int readAt(long offset, ByteBuffer dst) throws IOException {
+        if (offset < 0 || offset >= size) {
+            return -1;
+        }
+        int read = 0;
+        while (dst.hasRemaining() && offset < size) {
+            ByteBuffer segment = segments[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+            int inSegment = (int) (offset & SEGMENT_MASK);
+            int toRead = Math.min(dst.remaining(), segment.capacity() - inSegment);
+            ((Buffer) segment).position(inSegment);
+            ((Buffer) segment).limit(inSegment + toRead);
+            dst.put(segment);
+            offset += toRead;
+            read += toRead;
+        }
+        return read;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            segments = new MappedByteBuffer[0];
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package fqlite.util;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache for database pages.
+ *
+ * Overflow chains, interior pages of the b-tree and the pages of the schema
+ * table are read again and again during recovery. This cache keeps the most
+ * recently used pages in memory. The cache is split into several stripes
+ * (selected by the page number), each of them a small LRU list with its own
+ * lock, so worker threads reading different pages do not block each other.
+ *
+ * The cache stores private copies of the pages. Callers always get their own
+ * buffer and may modify it freely.
+ */
+public class PageCache {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final int pageSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a new page cache.
+     *
+     * @param capacity maximum number of pages in the cache
+     * @param pageSize the page size of the database
+     */
+    public PageCache(int capacity, int pageSize) {
+        this.pageSize = pageSize;
+        this.stripes = new Stripe[STRIPES];
+        int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    private Stripe stripe(long pageNo) {
+        return stripes[(int) (pageNo & (STRIPES - 1))];
+    }
+
+    /**
+     * Look up a page.
+     *
+     * @param pageNo the zero based page number
+     * @return a copy of the cached page or <code>null</code> if the page is not cached
+     */
+    public ByteBuffer get(long pageNo) {
+        byte[] copy = copyOf(pageNo);
+        if (copy == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return ByteBuffer.wrap(copy);
+    }
+
+    private byte[] copyOf(long pageNo) {
+        Stripe s = stripe(pageNo);
+        synchronized (s) {
+            byte[] page = s.get(pageNo);
+            if (page == null) {
+                return null;
+            }
+            byte[] copy = BufferUtil.acquirePageBuffer(pageSize);
+            System.arraycopy(page, 0, copy, 0, pageSize);
+            return copy;
+        }
+    }
+
+    /**
+     * Add a page to the cache. The least recently used page of the same
+     * stripe is dropped if the stripe is full.
+     *
+     * @param pageNo the zero based page number
+     * @param page the page content, at least <code>pageSize</code> bytes
+     */
+    public void put(long pageNo, byte[] page) {
+        if (page == null || page.length < pageSize) {
+            return;
+        }
+        byte[] copy = new byte[pageSize];
+        System.arraycopy(page, 0, copy, 0, pageSize);
+        Stripe s = stripe(pageNo);
+        synchronized (s) {
+            s.put(pageNo, copy);
+        }
+    }
+
+    /**
+     * @param pageNo the zero based page number
+     * @return true if the page is in the cache. The hit counters are not changed.
+     */
+    public boolean contains(long pageNo) {
+        Stripe s = stripe(pageNo);
+        synchronized (s) {
+            return s.containsKey(pageNo);
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of pages currently held in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PageCache [pages=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+    }
+
+    /**
+     * One LRU list. Access is synchronized on the stripe itself.
+     */
+    private static class Stripe extends LinkedHashMap<Long, byte[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > capacity;
+        }
+    }
+}
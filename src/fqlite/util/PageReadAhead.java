@@ -0,0 +1,180 @@
+package fqlite.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-ahead for a scan over a known, ascending list of pages.
+ *
+ * A background thread reads the pages ahead of the workers, so the file is
+ * busy while the workers are still carving the current pages. Workers fetch
+ * their page with <code>take()</code>. A prefetched page is handed over
+ * without copying, otherwise the worker has to read the page itself.
+ *
+ * The workers process the list in batches at the same time (see
+ * PageScheduler), so a slow worker may still need pages far behind the page
+ * taken last. The background thread therefore reads every page that has not
+ * been taken yet in ascending order, instead of following the highest page
+ * taken. The window limits the number of pages waiting in memory. It starts
+ * small and is doubled with every page that was taken from the read-ahead
+ * (up to a memory limit).
+ */
+public class PageReadAhead implements Runnable {
+
+    private static final int MIN_WINDOW = 4;
+    private static final long MAX_WINDOW_BYTES = 16L * 1024 * 1024;
+
+    private final LongPositionByteBuffer file;
+    private final int pageSize;
+    private final long[] pages;
+    private final int maxWindow;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /* all fields below are guarded by this */
+    /* prefetched pages by their index in the page list */
+    private final TreeMap<Integer, byte[]> prefetched = new TreeMap<>();
+    /* indices of the pages that have been taken */
+    private final BitSet consumed = new BitSet();
+    private int highest = -1;
+    private int window = MIN_WINDOW;
+    private int next = 0;
+    private boolean closed = false;
+
+    private Thread thread;
+
+    /**
+     * @param file the database file
+     * @param pageSize the page size
+     * @param pages zero based page numbers in ascending order
+     */
+    public PageReadAhead(LongPositionByteBuffer file, int pageSize, long[] pages) {
+        this.file = file;
+        this.pageSize = pageSize;
+        this.pages = pages;
+        this.maxWindow = (int) Math.max(MIN_WINDOW, MAX_WINDOW_BYTES / pageSize);
+    }
+
+    /**
+     * Start the background thread.
+     */
+    public void start() {
+        thread = new Thread(this, "fqlite-readahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get a page. If the page has already been read by the background thread
+     * it is removed from the read-ahead buffer and returned.
+     *
+     * @param pageNo zero based page number
+     * @return the page or <code>null</code> if it has not been prefetched
+     */
+    public ByteBuffer take(long pageNo) {
+        int idx = Arrays.binarySearch(pages, pageNo);
+        byte[] page = null;
+        if (idx >= 0) {
+            synchronized (this) {
+                consumed.set(idx);
+                highest = Math.max(highest, idx);
+                page = prefetched.remove(idx);
+                if (page != null) {
+                    /* the read-ahead is useful -> read further ahead */
+                    window = Math.min(maxWindow, window * 2);
+                }
+                notifyAll();
+            }
+        }
+        if (page == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return ByteBuffer.wrap(page);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                int idx;
+                synchronized (this) {
+                    /* pages that have been taken are not needed any more */
+                    next = consumed.nextClearBit(next);
+                    while (!closed && next < pages.length && prefetched.size() >= window) {
+                        dropStale();
+                        if (prefetched.size() < window) {
+                            break;
+                        }
+                        wait();
+                        next = consumed.nextClearBit(next);
+                    }
+                    if (closed || next >= pages.length) {
+                        return;
+                    }
+                    idx = next++;
+                }
+                byte[] page = BufferUtil.allocateByteBuffer(pageSize);
+                if (file.readAt(pages[idx] * pageSize, ByteBuffer.wrap(page)) < page.length) {
+                    continue;
+                }
+                synchronized (this) {
+                    if (!consumed.get(idx)) {
+                        prefetched.put(idx, page);
+                    }
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            /* read-ahead is only an optimization -> the workers read the pages themselves */
+        }
+    }
+
+    /**
+     * Drop pages that are far behind the page taken last. They are not
+     * taken at all (e.g. a cancelled batch) and would block the window.
+     */
+    private void dropStale() {
+        while (!prefetched.isEmpty() && prefetched.firstKey() < highest - maxWindow) {
+            prefetched.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Stop the background thread and drop all pages that have not been taken.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            prefetched.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PageReadAhead [hits=" + getHits() + ", misses=" + getMisses() + ", window=" + window + "]";
+    }
+}
@@ -82,6 +82,25 @@ public class RandomAccessFileReader extends LongPositionByteBuffer {
         }
     }
 
+    /**
+     * Positional read directly on the channel. It does not touch the shared
+     * buffer, so it needs no lock.
+     */
+    public int readAt(long offset, ByteBuffer dst) throws IOException {
+        if (offset >= size) {
+            return -1;
+        }
+        int read = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, offset + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
     private void fillBuffer() throws IOException {
         long newBufferPos = position / BUFFER_SIZE;
         int positionInBuffer = (int) (position % BUFFER_SIZE);
@@ -0,0 +1,99 @@
+package fqlite.base;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fqlite.util.RandomAccessFileReader;
+
+/**
+ * The traversal of a b-tree has to stop at pages it has already visited,
+ * a cycle must neither loop forever nor overflow the stack.
+ */
+public class BTreeTraversalTest {
+
+    private static final int PAGE_SIZE = 512;
+
+    private Path file;
+    private Job job;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("fqlite", ".db");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (job != null && job.file != null) {
+            job.file.close();
+        }
+        Files.deleteIfExists(file);
+    }
+
+    private static void interior(ByteBuffer db, int page, int rightChild, int... children) {
+        int start = (page - 1) * PAGE_SIZE;
+        db.put(start, (byte) 0x05);
+        db.putShort(start + 3, (short) children.length);
+        db.putInt(start + 8, rightChild);
+        for (int i = 0; i < children.length; i++) {
+            int cell = 400 + 8 * i;
+            db.putShort(start + 12 + 2 * i, (short) cell);
+            db.putInt(start + cell, children[i]);
+            /* the key (rowid) of the cell */
+            db.put(start + cell + 4, (byte) (i + 1));
+        }
+    }
+
+    private static void leaf(ByteBuffer db, int page) {
+        db.put((page - 1) * PAGE_SIZE, (byte) 0x0D);
+    }
+
+    private int[] leaves(ByteBuffer db, int root) throws IOException {
+        Files.write(file, db.array());
+        job = new Job();
+        job.ps = PAGE_SIZE;
+        job.numberofpages = db.capacity() / PAGE_SIZE;
+        job.file = new RandomAccessFileReader(file);
+        return job.collectBTreeLeaves(root);
+    }
+
+    @Test(timeout = 10000)
+    public void rightChildPointsToItself() throws IOException {
+        ByteBuffer db = ByteBuffer.allocate(4 * PAGE_SIZE);
+        interior(db, 2, 2, 3, 4);
+        leaf(db, 3);
+        leaf(db, 4);
+
+        assertArrayEquals(new int[] { 3, 4 }, leaves(db, 2));
+    }
+
+    @Test(timeout = 10000)
+    public void cycleOverSeveralPages() throws IOException {
+        ByteBuffer db = ByteBuffer.allocate(6 * PAGE_SIZE);
+        /* 2 -> 3, 5 and 5 -> 4, 2 */
+        interior(db, 2, 5, 3);
+        interior(db, 5, 2, 4);
+        leaf(db, 3);
+        leaf(db, 4);
+        leaf(db, 6);
+
+        assertArrayEquals(new int[] { 3, 4 }, leaves(db, 2));
+    }
+
+    @Test(timeout = 10000)
+    public void leafReferencedTwice() throws IOException {
+        ByteBuffer db = ByteBuffer.allocate(4 * PAGE_SIZE);
+        interior(db, 2, 3, 3, 4);
+        leaf(db, 3);
+        leaf(db, 4);
+
+        assertArrayEquals(new int[] { 3, 4 }, leaves(db, 2));
+    }
+}
@@ -0,0 +1,87 @@
+package fqlite.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillingRowStoreTest {
+
+    private Path tempDir;
+    private SpillingRowStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("fqlite");
+        /* every row is spilled on its own */
+        store = new SpillingRowStore(1, tempDir);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.delete();
+        try (Stream<Path> files = Files.list(tempDir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        Files.delete(tempDir);
+    }
+
+    private static SqliteInternalRow row(String table, long offset, String value) {
+        SqliteInternalRow row = new SqliteInternalRow();
+        row.setTableName(table);
+        row.setColumnNamesMap(new HashMap<>());
+        row.setOffset(offset);
+        row.setRecordType("");
+        row.append(new SqliteElementData(value, StandardCharsets.UTF_8));
+        return row;
+    }
+
+    private List<String> read(String table) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (SpillingRowStore.RowIterator rows = store.iterator(table)) {
+            while (rows.hasNext()) {
+                lines.add(rows.next().toString());
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void mergesMoreRunsThanTheFanIn() throws IOException {
+        List<SqliteInternalRow> added = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5 * SpillingRowStore.MAX_FAN_IN + 3; i++) {
+            SqliteInternalRow row = row(i % 2 == 0 ? "a" : "b", random.nextInt(40), "v" + i);
+            added.add(row);
+            store.accept(row);
+        }
+        store.close();
+
+        for (String table : new String[] { "a", "b" }) {
+            /* rows with the same offset keep the order in which they were added */
+            List<String> expected = added.stream()
+                    .filter(r -> r.getTableName().equals(table))
+                    .sorted(Comparator.comparingLong(SqliteInternalRow::getOffset))
+                    .map(SqliteInternalRow::toString)
+                    .collect(Collectors.toList());
+            assertEquals(expected, read(table));
+            /* a second pass reads the merged runs */
+            assertEquals(expected, read(table));
+        }
+        assertTrue(store.getSpilledBytes() > 0);
+    }
+}
@@ -0,0 +1,90 @@
+package fqlite.base;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import fqlite.descriptor.TableDescriptor;
+import fqlite.pattern.HeaderPattern;
+import fqlite.types.SerialTypes;
+import fqlite.types.StorageClasses;
+
+public class TableSignatureIndexTest {
+
+    private static TableDescriptor table(String name, StorageClasses... columns) {
+        List<String> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> constraints = new ArrayList<>();
+        for (StorageClasses s : columns) {
+            types.add(s.name());
+            names.add("c" + names.size());
+            constraints.add("");
+        }
+        return new TableDescriptor(name, "", types, types, names, constraints, null, new HeaderPattern(), false);
+    }
+
+    private static SqliteElement[] header(StorageClasses... columns) {
+        SqliteElement[] header = new SqliteElement[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            header[i] = new SqliteElement(SerialTypes.INT8, columns[i], 1, StandardCharsets.UTF_8);
+        }
+        return header;
+    }
+
+    private static StorageClasses[] columns(int count, StorageClasses type) {
+        StorageClasses[] columns = new StorageClasses[count];
+        Arrays.fill(columns, type);
+        return columns;
+    }
+
+    @Test
+    public void matchesNarrowTable() {
+        TableDescriptor t = table("narrow", StorageClasses.INT, StorageClasses.TEXT);
+        TableSignatureIndex index = new TableSignatureIndex(Arrays.asList(t));
+
+        assertSame(t, index.match(header(StorageClasses.INT, StorageClasses.TEXT)));
+        assertNull(index.match(header(StorageClasses.TEXT, StorageClasses.INT)));
+        assertNull(index.match(header(StorageClasses.INT)));
+    }
+
+    @Test
+    public void matchesWideTables() {
+        for (int count : new int[] { 29, 30, 31, 32, 40, 63, 64, 100 }) {
+            StorageClasses[] columns = columns(count, StorageClasses.TEXT);
+            columns[count - 1] = StorageClasses.INT;
+            TableDescriptor t = table("wide" + count, columns);
+            TableSignatureIndex index = new TableSignatureIndex(Arrays.asList(t));
+
+            assertSame("columns: " + count, t, index.match(header(columns)));
+
+            columns[0] = StorageClasses.BLOB;
+            assertNull("columns: " + count, index.match(header(columns)));
+        }
+    }
+
+    @Test
+    public void wideTablesWithTheSameHashedCount() {
+        TableDescriptor t40 = table("t40", columns(40, StorageClasses.TEXT));
+        TableDescriptor t50 = table("t50", columns(50, StorageClasses.TEXT));
+        TableSignatureIndex index = new TableSignatureIndex(Arrays.asList(t40, t50));
+
+        assertSame(t40, index.match(header(columns(40, StorageClasses.TEXT))));
+        assertSame(t50, index.match(header(columns(50, StorageClasses.TEXT))));
+    }
+
+    @Test
+    public void invalidColumnNeverMatches() {
+        StorageClasses[] columns = columns(40, StorageClasses.INT);
+        TableSignatureIndex index = new TableSignatureIndex(Arrays.asList(table("wide", columns)));
+
+        SqliteElement[] header = header(columns);
+        header[7] = null;
+        assertNull(index.match(header));
+    }
+}
@@ -0,0 +1,107 @@
+package fqlite.export;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fqlite.base.SqliteElementData;
+import fqlite.base.SqliteInternalRow;
+
+public class TableExporterTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("fqlite");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        Files.delete(dir);
+    }
+
+    private static SqliteInternalRow row(String table, long offset, SqliteElementData value) {
+        SqliteInternalRow row = new SqliteInternalRow();
+        row.setTableName(table);
+        row.setOffset(offset);
+        row.setRecordType("");
+        row.append(value);
+        return row;
+    }
+
+    private static String read(Path file, boolean gzip) throws IOException {
+        if (!gzip) {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            byte[] b = new byte[4096];
+            for (int n; (n = in.read(b)) > 0;) {
+                out.write(b, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void reopenedFiles(boolean gzip) throws IOException {
+        List<String> tables = Arrays.asList("a", "b", "c", "d", "e");
+        TableExporter exporter = new TableExporter(dir, "db_", ExportFormat.CSV, gzip, 16, 2);
+        for (int i = 0; i < 100; i++) {
+            String table = tables.get(i % tables.size());
+            exporter.accept(row(table, i, new SqliteElementData(i, StandardCharsets.UTF_8)));
+        }
+        Map<String, Path> files = exporter.getFiles();
+        exporter.close();
+
+        for (int t = 0; t < tables.size(); t++) {
+            StringBuilder expected = new StringBuilder("offset;type;col1\n");
+            for (int i = t; i < 100; i += tables.size()) {
+                expected.append(i).append(";;").append(i).append('\n');
+            }
+            assertEquals(expected.toString(), read(files.get(tables.get(t)), gzip));
+        }
+    }
+
+    @Test
+    public void reopensSuspendedFiles() throws IOException {
+        reopenedFiles(false);
+    }
+
+    @Test
+    public void reopensSuspendedGzipFiles() throws IOException {
+        reopenedFiles(true);
+    }
+
+    @Test
+    public void nonFiniteFloatsAreNullInJson() throws IOException {
+        TableExporter exporter = new TableExporter(dir, "db_", ExportFormat.JSONL, false);
+        exporter.accept(row("t", 1, new SqliteElementData(Double.NaN, StandardCharsets.UTF_8)));
+        exporter.accept(row("t", 2, new SqliteElementData(Double.NEGATIVE_INFINITY, StandardCharsets.UTF_8)));
+        exporter.accept(row("t", 3, new SqliteElementData(1.5, StandardCharsets.UTF_8)));
+        Path file = exporter.getFiles().get("t");
+        exporter.close();
+
+        assertEquals("{\"_offset\":1,\"_type\":\"\",\"col1\":null}\n"
+                + "{\"_offset\":2,\"_type\":\"\",\"col1\":null}\n"
+                + "{\"_offset\":3,\"_type\":\"\",\"col1\":1.5}\n",
+                read(file, false));
+    }
+}
@@ -0,0 +1,83 @@
+package fqlite.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExternalSorterTest {
+
+    private Path tempDir;
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("fqlite");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        Files.delete(tempDir);
+    }
+
+    private long files() throws IOException {
+        try (Stream<Path> files = Files.list(tempDir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void mergesMoreRunsThanTheFanIn() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10 * ExternalSorter.MAX_FAN_IN + 7; i++) {
+            lines.add(random.nextInt(1000) + ";line\n");
+        }
+
+        StringWriter out = new StringWriter();
+        try (ExternalSorter sorter = new ExternalSorter(1, 1, tempDir)) {
+            for (String line : lines) {
+                sorter.add(line);
+            }
+            assertEquals(lines.size(), files());
+
+            sorter.writeTo(out);
+            assertTrue(files() <= ExternalSorter.MAX_FAN_IN);
+        }
+        assertEquals(0, files());
+
+        Collections.sort(lines);
+        assertEquals(String.join("", lines), out.toString());
+    }
+
+    @Test
+    public void mergesRunsAndChunks() throws IOException {
+        List<String> lines = new ArrayList<>();
+        StringWriter out = new StringWriter();
+        try (ExternalSorter sorter = new ExternalSorter(400, 1, tempDir)) {
+            for (int i = 999; i >= 0; i--) {
+                String line = String.format("%04d\n", i);
+                lines.add(line);
+                sorter.add(line);
+            }
+            sorter.writeTo(out);
+        }
+
+        Collections.sort(lines);
+        assertEquals(String.join("", lines), out.toString());
+    }
+}